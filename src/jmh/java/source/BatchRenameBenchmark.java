@@ -0,0 +1,62 @@
+package source;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Planning and executing a journaled batch rename of every file in a directory. Each operation renames the
+ * files back and forth, so the directory looks the same after an even number of operations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BatchRenameBenchmark {
+
+    @Param({"10000", "100000"})
+    public int entries;
+
+    private Path directory;
+    private Path journals;
+    private BatchRenamer renamer;
+    private RenamePipeline forward;
+    private RenamePipeline backward;
+    private boolean renamed;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("filemanager-rename");
+        journals = Files.createTempDirectory("filemanager-journals");
+        for (int i = 0; i < entries; i++) {
+            Files.createFile(directory.resolve("IMG_" + i + ".jpg"));
+        }
+        renamer = new BatchRenamer(journals, Runtime.getRuntime().availableProcessors() * 2);
+        forward = RenamePipeline.literal("IMG_", "photo_");
+        backward = RenamePipeline.literal("photo_", "IMG_");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticTree.delete(directory);
+        SyntheticTree.delete(journals);
+    }
+
+    @Benchmark
+    public int rename() throws IOException, BatchRenamer.RenameException {
+        RenamePipeline pipeline = renamed ? backward : forward;
+        Map<String, String> renames = new RenamePlanner(directory, pipeline).plan(RenamePlanner.list(directory));
+        BatchRenamer.Result result = renamer.execute(renamer.plan(directory, renames), null);
+        if (!result.getErrors().isEmpty()) {
+            throw new IOException(result.getErrors().toString());
+        }
+        renamed = !renamed;
+        return result.getRenamed();
+    }
+}
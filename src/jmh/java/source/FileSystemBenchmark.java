@@ -0,0 +1,125 @@
+package source;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing, size aggregation and rename preview on synthetic trees, from a single wide directory to deep
+ * chains of directories. One operation processes the whole tree. Trees are stored on disk or in an
+ * in-memory file system, which measures the code without the disk; the size index only applies to disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileSystemBenchmark {
+
+    @Param({"WIDE", "BALANCED", "DEEP"})
+    public String shape;
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    @Param({"disk", "memory"})
+    public String storage;
+
+    private FileSystem fileSystem;
+    private SyntheticTree tree;
+    private DirectorySizeScanner scanner;
+    private DirectorySizeScanner indexedScanner;
+    private Path indexDirectory;
+    private FileListModel.Snapshot names;
+    private RenamePipeline pipeline;
+
+    @Setup
+    public void setup() throws IOException {
+        fileSystem = storage.equals("memory") ? Jimfs.newFileSystem(Configuration.unix()) : FileSystems.getDefault();
+        tree = SyntheticTree.create(SyntheticTree.Shape.valueOf(shape), entries, fileSystem);
+        scanner = new DirectorySizeScanner(Runtime.getRuntime().availableProcessors(), null);
+
+        // the index is never saved, the first scan only fills it
+        indexDirectory = Files.createTempDirectory("filemanager-index");
+        indexedScanner = new DirectorySizeScanner(Runtime.getRuntime().availableProcessors(),
+                new SizeIndex(indexDirectory.resolve("sizes.idx")));
+        indexedScanner.getDirectorySizes(tree.getRoot());
+
+        FileListModel model = new FileListModel();
+        for (Path directory : tree.getDirectories()) {
+            model.add(RenamePlanner.list(directory));
+        }
+        names = model.snapshot();
+        pipeline = RenamePipeline.compile("IMG_(\\d+)", "photo_{n:7}_$1", true,
+                RenamePipeline.CaseMode.LOWER, RenamePipeline.Scope.BASE_NAME);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        scanner.shutdown();
+        indexedScanner.shutdown();
+        SyntheticTree.delete(indexDirectory);
+        if (fileSystem != FileSystems.getDefault()) {
+            fileSystem.close();
+        }
+    }
+
+    /**
+     * Lists every directory into a file list, like opening each folder in the window
+     */
+    @Benchmark
+    public int listing() throws IOException {
+        int count = 0;
+        for (Path directory : tree.getDirectories()) {
+            FileListModel model = new FileListModel();
+            model.add(RenamePlanner.list(directory));
+            count += model.getSize();
+        }
+        return count;
+    }
+
+    /**
+     * Measures the size of the whole tree without an index
+     */
+    @Benchmark
+    public List<Directory> sizes() throws IOException {
+        return scanner.getDirectorySizes(tree.getRoot());
+    }
+
+    /**
+     * Measures the size of the whole tree, counting every file once by its file key
+     */
+    @Benchmark
+    public List<Directory> sizesLinkAware() throws IOException {
+        return scanner.getDirectorySizes(tree.getRoot(), null, true);
+    }
+
+    /**
+     * Measures the size of the unchanged tree with an index of the previous scan
+     */
+    @Benchmark
+    public List<Directory> sizesIndexed() throws IOException {
+        return indexedScanner.getDirectorySizes(tree.getRoot());
+    }
+
+    /**
+     * Computes the rename preview of all names of the tree
+     */
+    @Benchmark
+    public BitSet preview() {
+        BitSet matched = new BitSet(names.size());
+        BitSet renamed = new BitSet(names.size());
+        RenamePreviewEngine.match(names, pipeline, null, matched, renamed, () -> false);
+        return renamed;
+    }
+}
@@ -0,0 +1,73 @@
+package source;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the rename pipeline on one million names, reported in names per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenamePipelineBenchmark {
+
+    private static final int COUNT = 1_000_000;
+
+    @Param({"literal", "regex", "counter", "case", "extension"})
+    public String rule;
+
+    private String[] names;
+    private RenamePipeline.Renamer renamer;
+
+    @Setup
+    public void setup() {
+        names = new String[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            names[i] = (i % 10 == 0 ? "dir_" + i + "/" : "IMG_" + i + (i % 3 == 0 ? ".JPG" : ".jpeg"));
+        }
+        RenamePipeline pipeline;
+        switch (rule) {
+            case "regex":
+                pipeline = RenamePipeline.compile("IMG_(\\d+)", "photo-$1", true,
+                        RenamePipeline.CaseMode.NONE, RenamePipeline.Scope.BASE_NAME);
+                break;
+            case "counter":
+                pipeline = RenamePipeline.compile("IMG_", "holiday_{n:7}_", false,
+                        RenamePipeline.CaseMode.NONE, RenamePipeline.Scope.BASE_NAME);
+                break;
+            case "case":
+                pipeline = RenamePipeline.compile("", "", false,
+                        RenamePipeline.CaseMode.TITLE, RenamePipeline.Scope.NAME);
+                break;
+            case "extension":
+                pipeline = RenamePipeline.compile("jpeg", "jpg", false,
+                        RenamePipeline.CaseMode.LOWER, RenamePipeline.Scope.EXTENSION);
+                break;
+            default:
+                pipeline = RenamePipeline.literal("IMG", "photo");
+                break;
+        }
+        renamer = pipeline.renamer();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void rename(Blackhole blackhole) {
+        for (int i = 0; i < names.length; i++) {
+            blackhole.consume(renamer.rename(names[i], i, 0).length());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void match(Blackhole blackhole) {
+        for (String name : names) {
+            blackhole.consume(renamer.matches(name));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package source;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from launching the program until its window is shown, or until a command line run has ended, with
+ * and without the class data sharing archive. Every operation starts a new JVM. Uses the jar and archive
+ * built by mvn -P appcds package in the working directory, another jar is selected with
+ * -jvmArgs -Dfilemanager.jar=PATH. The window needs a display, select -p mode=help without one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"window", "help"})
+    public String mode;
+
+    @Param({"off", "on"})
+    public String cds;
+
+    private List<String> command;
+    private Path output;
+
+    @Setup
+    public void setup() throws IOException {
+        Path jar = Paths.get(System.getProperty("filemanager.jar", "target/FileManager-1.0-SNAPSHOT.jar"));
+        if (!Files.isRegularFile(jar)) {
+            throw new IllegalStateException("Jar not found, build it first: " + jar.toAbsolutePath());
+        }
+        command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (cds.equals("on")) {
+            Path archive = jar.resolveSibling("FileManager.jsa");
+            if (!Files.isRegularFile(archive)) {
+                throw new IllegalStateException("Archive not found, build it with -P appcds: "
+                        + archive.toAbsolutePath());
+            }
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.add("-Dfilemanager.exitAfterStartup=true");
+        command.add("-jar");
+        command.add(jar.toString());
+        if (mode.equals("help")) {
+            command.add("help");
+        }
+        output = Files.createTempFile("filemanager-startup", ".txt");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output);
+    }
+
+    /**
+     * Starts the program and waits until it has exited after its first frame or command
+     */
+    @Benchmark
+    public int start() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(output.toFile())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IllegalStateException("Exit code " + exitCode + " of " + String.join(" ", command));
+        }
+        return exitCode;
+    }
+}
@@ -0,0 +1,156 @@
+package source;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Directory tree of a given shape used by the benchmarks. Creating a million entries takes a while, so
+ * finished trees on disk are kept in the temporary directory and reused by later runs. Trees in other file
+ * systems, e.g. in memory, are created every time.
+ */
+final class SyntheticTree {
+
+    private static final String COMPLETE_MARKER = ".complete";
+
+    /**
+     * Shape of a tree: number of subdirectories per directory and number of directory levels. Files are
+     * spread evenly over all directories.
+     */
+    enum Shape {
+        /**
+         * All entries in a single directory
+         */
+        WIDE(0, 0),
+        /**
+         * Ten subdirectories per directory on three levels
+         */
+        BALANCED(10, 3),
+        /**
+         * Two chains of directories 200 levels deep
+         */
+        DEEP(2, 200);
+
+        private final int fanOut;
+        private final int depth;
+
+        Shape(int fanOut, int depth) {
+            this.fanOut = fanOut;
+            this.depth = depth;
+        }
+    }
+
+    private final Path root;
+    private final List<Path> directories;
+
+    private SyntheticTree(Path root, List<Path> directories) {
+        this.root = root;
+        this.directories = directories;
+    }
+
+    /**
+     * Creates a tree or reuses a tree created before
+     *
+     * @param shape      Shape of the tree
+     * @param entries    Number of files and directories
+     * @param fileSystem File system to create the tree in
+     * @return Created tree
+     * @throws IOException if the tree cannot be created
+     */
+    static SyntheticTree create(Shape shape, int entries, FileSystem fileSystem) throws IOException {
+        String name = shape.name().toLowerCase() + "-" + entries;
+        Path root = PathResolver.isDefault(fileSystem.getPath(""))
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "filemanager-benchmarks", name)
+                : fileSystem.getPath("/filemanager-benchmarks", name);
+        List<Path> directories = new ArrayList<>();
+        if (Files.exists(root.resolve(COMPLETE_MARKER))) {
+            collectDirectories(root, directories);
+            return new SyntheticTree(root, directories);
+        }
+
+        delete(root);
+        Files.createDirectories(root);
+        directories.add(root);
+        // DEEP builds chains, the other shapes build complete trees
+        List<Path> level = new ArrayList<>(directories);
+        for (int depth = 0; depth < shape.depth; depth++) {
+            List<Path> next = new ArrayList<>();
+            for (Path parent : level) {
+                int children = shape == Shape.DEEP && depth > 0 ? 1 : shape.fanOut;
+                for (int i = 0; i < children; i++) {
+                    next.add(Files.createDirectory(parent.resolve("dir_" + depth + "_" + i)));
+                }
+            }
+            directories.addAll(next);
+            level = next;
+        }
+
+        int files = Math.max(0, entries - directories.size() + 1);
+        for (int i = 0; i < files; i++) {
+            Path directory = directories.get(i % directories.size());
+            Path file = Files.createFile(directory.resolve("IMG_" + i + (i % 3 == 0 ? ".JPG" : ".jpeg")));
+            // a few files with content, so the sizes differ
+            if (i % 16 == 0) {
+                Files.write(file, new byte[i % 4096]);
+            }
+        }
+        Files.createFile(root.resolve(COMPLETE_MARKER));
+        return new SyntheticTree(root, directories);
+    }
+
+    /**
+     * @return Top directory of the tree
+     */
+    Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return All directories of the tree including the root
+     */
+    List<Path> getDirectories() {
+        return directories;
+    }
+
+    private static void collectDirectories(Path root, List<Path> directories) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                directories.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Deletes a directory and its contents
+     *
+     * @param directory Directory to delete
+     * @throws IOException if an entry cannot be deleted
+     */
+    static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
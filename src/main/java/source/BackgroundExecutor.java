@@ -0,0 +1,47 @@
+package source;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared executor for long running jobs which must not block the event dispatch thread. Uses virtual
+ * threads if the running JDK provides them, otherwise a cached pool of daemon threads.
+ */
+public final class BackgroundExecutor {
+
+    private static final ExecutorService executor = create();
+
+    private BackgroundExecutor() {
+    }
+
+    /**
+     * Runs a job in the background
+     *
+     * @param job Job to run
+     */
+    public static void execute(Runnable job) {
+        executor.execute(job);
+    }
+
+    /**
+     * @return Executor used for background jobs
+     */
+    public static ExecutorService get() {
+        return executor;
+    }
+
+    private static ExecutorService create() {
+        try {
+            // Java 21+, looked up reflectively to keep running on older JDKs
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(job -> {
+                Thread thread = new Thread(job, "Background-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
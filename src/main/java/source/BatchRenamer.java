@@ -0,0 +1,622 @@
+package source;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renames a batch of entries of one directory as a transaction. The batch is planned before the disk is
+ * touched: invalid names and collisions are rejected, and entries which are the target of another rename
+ * (chains like a to b and b to c, or cycles like a to b and b to a) are first moved to temporary names. This splits the batch into
+ * two phases whose moves are independent of each other and run in parallel.
+ * <p>
+ * Every batch is written to a journal before it starts. If a move fails the completed moves are rolled back,
+ * and a batch interrupted by a crash can be rolled back or resumed from its journal. Batches on other file
+ * systems, e.g. inside archives, are not journaled, since those are only written back as a whole.
+ */
+public class BatchRenamer {
+
+    private static final int MAGIC = 0x464d524a; // "FMRJ"
+    private static final int VERSION = 1;
+    private static final int CHUNK_SIZE = 256;
+    private static final String TEMP_PREFIX = ".fm-rename-";
+
+    private final Path journalDirectory;
+    private final int parallelism;
+
+    /**
+     * @param journalDirectory Directory for the journals of running batches
+     * @param parallelism      Number of moves running at the same time
+     */
+    public BatchRenamer(Path journalDirectory, int parallelism) {
+        this.journalDirectory = journalDirectory;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return Default journal directory in the home directory of the user
+     */
+    public static Path defaultJournalDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".filemanager", "journals");
+    }
+
+    /**
+     * Checks a batch and determines the order of the moves
+     *
+     * @param directory Directory containing the entries
+     * @param renames   Original names mapped to their new names, directories may end with '/'
+     * @return Planned moves
+     * @throws RenameException if a new name is invalid or collides with another entry, or if a directory
+     *                         inside an archive is to be renamed
+     */
+    public Plan plan(Path directory, Map<String, String> renames) throws RenameException {
+        long start = System.nanoTime();
+        Map<String, String> moves = new LinkedHashMap<>();
+        List<String> problems = new ArrayList<>();
+        boolean archive = !PathResolver.isDefault(directory);
+        for (Map.Entry<String, String> entry : renames.entrySet()) {
+            String from = stripSlash(entry.getKey());
+            String to = stripSlash(entry.getValue());
+            if (!isValidName(directory, to)) {
+                problems.add(entry.getKey() + " \u2192 " + entry.getValue());
+            } else if (archive && !from.equals(to) && isDirectory(directory.resolve(from))) {
+                // zip file systems move only the entry of the directory itself and lose its contents
+                problems.add(entry.getKey() + " \u2192 " + entry.getValue());
+            } else if (!from.equals(to)) {
+                moves.put(from, to);
+            }
+        }
+
+        // several entries renamed to the same name
+        Map<String, String> targets = new HashMap<>();
+        for (Map.Entry<String, String> move : moves.entrySet()) {
+            String other = targets.put(move.getValue(), move.getKey());
+            if (other != null) {
+                problems.add(other + ", " + move.getKey() + " \u2192 " + move.getValue());
+            }
+        }
+
+        // targets occupied by entries which stay where they are
+        Set<String> vacate = new HashSet<>();
+        for (Map.Entry<String, String> move : moves.entrySet()) {
+            Path target = directory.resolve(move.getValue());
+            if (moves.containsKey(move.getValue())) {
+                // chain or cycle, the target is moved away first
+                vacate.add(move.getValue());
+            } else if (exists(target)) {
+                if (isSameFile(directory.resolve(move.getKey()), target)) {
+                    // only the case changes on a case insensitive file system
+                    vacate.add(move.getKey());
+                } else {
+                    problems.add(move.getKey() + " \u2192 " + move.getValue());
+                }
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new RenameException(problems);
+        }
+
+        String batch = Long.toString(System.nanoTime(), 36);
+        List<Step> first = new ArrayList<>();
+        List<Step> second = new ArrayList<>();
+        int count = 0;
+        for (Map.Entry<String, String> move : moves.entrySet()) {
+            String from = move.getKey();
+            if (vacate.contains(from)) {
+                String temp = TEMP_PREFIX + batch + "-" + count++;
+                first.add(new Step(0, from, temp));
+                from = temp;
+            }
+            second.add(new Step(1, from, move.getValue()));
+        }
+        Metrics.RENAME_PLAN.record(start, moves.size(), 0);
+        return new Plan(directory, first, second);
+    }
+
+    /**
+     * Executes a planned batch. If a move fails, all completed moves are undone.
+     *
+     * @param plan     Planned moves
+     * @param progress Notified about completed moves and asked for cancellation, may be null
+     * @return Result of the batch
+     * @throws IOException if the journal cannot be written
+     */
+    public Result execute(Plan plan, Progress progress) throws IOException {
+        if (!PathResolver.isDefault(plan.directory)) {
+            try (Journal writer = Journal.none()) {
+                return run(plan, writer, new boolean[plan.steps.size()], progress);
+            }
+        }
+        Path journal = journalFor(plan.directory);
+        Files.createDirectories(journalDirectory);
+        // fails if an interrupted batch of the same directory is pending
+        Result result;
+        try (Journal writer = Journal.create(journal, plan)) {
+            result = run(plan, writer, new boolean[plan.steps.size()], progress);
+        }
+        finish(journal, result);
+        return result;
+    }
+
+    /**
+     * @return Journals of batches which were interrupted
+     * @throws IOException if the journal directory cannot be listed
+     */
+    public List<Path> pendingJournals() throws IOException {
+        List<Path> journals = new ArrayList<>();
+        if (!Files.isDirectory(journalDirectory)) {
+            return journals;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(journalDirectory, "*.journal")) {
+            for (Path journal : stream) {
+                journals.add(journal);
+            }
+        }
+        return journals;
+    }
+
+    /**
+     * Reads the directory an interrupted batch belongs to
+     *
+     * @param journal Journal of the batch
+     * @return Directory of the batch
+     * @throws IOException if the journal cannot be read
+     */
+    public static Path directoryOf(Path journal) throws IOException {
+        return Journal.read(journal).plan.directory;
+    }
+
+    /**
+     * Completes an interrupted batch
+     *
+     * @param journal Journal of the batch
+     * @return Result of the batch
+     * @throws IOException if the journal cannot be read
+     */
+    public Result resume(Path journal) throws IOException {
+        Journal.Content content = Journal.read(journal);
+        boolean[] done = reconcile(content);
+        Result result;
+        try (Journal writer = Journal.append(journal)) {
+            result = run(content.plan, writer, done, null);
+        }
+        finish(journal, result);
+        return result;
+    }
+
+    /**
+     * Undoes the completed moves of an interrupted batch
+     *
+     * @param journal Journal of the batch
+     * @return Result of the rollback
+     * @throws IOException if the journal cannot be read
+     */
+    public Result rollback(Path journal) throws IOException {
+        Journal.Content content = Journal.read(journal);
+        boolean[] done = reconcile(content);
+        List<String> errors = undo(content.plan, done);
+        Result result = new Result(0, errors, true, !errors.isEmpty());
+        finish(journal, result);
+        return result;
+    }
+
+    /**
+     * Removes the journal unless the directory is left in a partially renamed state
+     */
+    private static void finish(Path journal, Result result) throws IOException {
+        if (!result.incomplete) {
+            Files.deleteIfExists(journal);
+        }
+    }
+
+    private Result run(Plan plan, Journal journal, boolean[] done, Progress progress) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, job -> {
+            Thread thread = new Thread(job, "BatchRenamer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger completed = new AtomicInteger();
+        for (boolean step : done) {
+            if (step) {
+                completed.incrementAndGet();
+            }
+        }
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        try {
+            // the moves within a phase are independent, the phases run one after the other
+            for (int phase = 0; phase < 2 && errors.isEmpty(); phase++) {
+                List<Future<?>> futures = new ArrayList<>();
+                int from = phase == 0 ? 0 : plan.firstPhaseSize;
+                int to = phase == 0 ? plan.firstPhaseSize : plan.steps.size();
+                for (int chunk = from; chunk < to; chunk += CHUNK_SIZE) {
+                    int chunkStart = chunk;
+                    int chunkEnd = Math.min(chunk + CHUNK_SIZE, to);
+                    futures.add(executor.submit(() -> {
+                        for (int i = chunkStart; i < chunkEnd; i++) {
+                            if (done[i]) {
+                                continue;
+                            }
+                            if (!errors.isEmpty() || (progress != null && progress.isCancelled())) {
+                                return;
+                            }
+                            Step step = plan.steps.get(i);
+                            long moveStart = System.nanoTime();
+                            try {
+                                Files.move(plan.directory.resolve(step.from), plan.directory.resolve(step.to));
+                                Metrics.RENAME.record(moveStart, 1, 0);
+                                if (Trace.isEnabled()) {
+                                    Trace.log("Renamed " + step.from + " to " + step.to);
+                                }
+                                done[i] = true;
+                                journal.completed(i);
+                                if (progress != null) {
+                                    progress.moved(step, completed.incrementAndGet(), plan.steps.size());
+                                }
+                            } catch (IOException e) {
+                                Trace.log("Unable to rename " + step.from + " to " + step.to);
+                                errors.add(step.from + " \u2192 " + step.to + ": " + e.toString());
+                            }
+                        }
+                    }));
+                }
+                waitFor(futures);
+                journal.sync();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Metrics.RENAME_BATCH.record(start, completed.get(), 0);
+        // a cancel arriving after the last move is too late, the batch is complete
+        boolean cancelled = progress != null && progress.isCancelled() && completed.get() < plan.steps.size();
+        if (errors.isEmpty() && !cancelled) {
+            return new Result(plan.size(), errors, false, false);
+        }
+        // leave the directory as it was before the batch
+        List<String> rollbackErrors = undo(plan, done);
+        errors.addAll(rollbackErrors);
+        return new Result(0, errors, true, !rollbackErrors.isEmpty());
+    }
+
+    private List<String> undo(Plan plan, boolean[] done) {
+        List<String> errors = new ArrayList<>();
+        for (int i = plan.steps.size() - 1; i >= 0; i--) {
+            if (!done[i]) {
+                continue;
+            }
+            Step step = plan.steps.get(i);
+            try {
+                Files.move(plan.directory.resolve(step.to), plan.directory.resolve(step.from));
+                done[i] = false;
+            } catch (IOException e) {
+                errors.add(step.to + " \u2192 " + step.from + ": " + e.toString());
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Completion records are written without syncing, so the state of every step is checked on disk
+     */
+    private static boolean[] reconcile(Journal.Content content) {
+        Plan plan = content.plan;
+        boolean[] done = content.done;
+        for (int i = 0; i < plan.steps.size(); i++) {
+            Step step = plan.steps.get(i);
+            boolean fromExists = exists(plan.directory.resolve(step.from));
+            boolean toExists = exists(plan.directory.resolve(step.to));
+            if (toExists && !fromExists) {
+                done[i] = true;
+            } else if (fromExists && !toExists) {
+                done[i] = false;
+            }
+        }
+        return done;
+    }
+
+    private static void waitFor(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Names the journal after a digest of the directory, so batches of different directories never share one
+     */
+    private Path journalFor(Path directory) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256")
+                    .digest(directory.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        StringBuilder name = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return journalDirectory.resolve(name + ".journal");
+    }
+
+    private static boolean exists(Path file) {
+        Metrics.STAT.increment();
+        return Files.exists(file, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private static boolean isDirectory(Path file) {
+        Metrics.STAT.increment();
+        return Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private static boolean isValidName(Path directory, String name) {
+        if (name.isEmpty() || name.equals(".") || name.equals("..") || name.contains("/")
+                || name.contains(directory.getFileSystem().getSeparator())) {
+            return false;
+        }
+        try {
+            directory.resolve(name);
+            return true;
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    private static boolean isSameFile(Path a, Path b) {
+        try {
+            return Files.isSameFile(a, b);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String stripSlash(String name) {
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /**
+     * Receives the progress of a batch
+     */
+    public interface Progress {
+        /**
+         * Called after every completed move
+         *
+         * @param step  Completed move
+         * @param done  Number of completed moves
+         * @param total Number of moves
+         */
+        void moved(Step step, int done, int total);
+
+        /**
+         * @return true if the batch should be stopped and rolled back
+         */
+        boolean isCancelled();
+    }
+
+    /**
+     * Single move of an entry
+     */
+    public static class Step {
+        private final int phase;
+        private final String from;
+        private final String to;
+
+        Step(int phase, String from, String to) {
+            this.phase = phase;
+            this.from = from;
+            this.to = to;
+        }
+
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+    }
+
+    /**
+     * Checked and ordered moves of a batch
+     */
+    public static class Plan {
+        private final Path directory;
+        private final List<Step> steps;
+        private final int firstPhaseSize;
+
+        Plan(Path directory, List<Step> first, List<Step> second) {
+            this.directory = directory;
+            this.steps = new ArrayList<>(first.size() + second.size());
+            this.steps.addAll(first);
+            this.steps.addAll(second);
+            this.firstPhaseSize = first.size();
+        }
+
+        /**
+         * @return Number of renamed entries
+         */
+        public int size() {
+            return steps.size() - firstPhaseSize;
+        }
+
+        /**
+         * @return Number of moves including the moves to temporary names
+         */
+        public int moves() {
+            return steps.size();
+        }
+    }
+
+    /**
+     * Outcome of a batch
+     */
+    public static class Result {
+        private final int renamed;
+        private final List<String> errors;
+        private final boolean rolledBack;
+        private final boolean incomplete;
+
+        Result(int renamed, List<String> errors, boolean rolledBack, boolean incomplete) {
+            this.renamed = renamed;
+            this.errors = errors;
+            this.rolledBack = rolledBack;
+            this.incomplete = incomplete;
+        }
+
+        public int getRenamed() {
+            return renamed;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public boolean isRolledBack() {
+            return rolledBack;
+        }
+
+        /**
+         * @return true if the batch could neither be completed nor rolled back and its journal was kept
+         */
+        public boolean isIncomplete() {
+            return incomplete;
+        }
+    }
+
+    /**
+     * Thrown if a batch cannot be executed without overwriting or losing entries
+     */
+    public static class RenameException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> problems;
+
+        RenameException(List<String> problems) {
+            super(problems.toString());
+            this.problems = problems;
+        }
+
+        public List<String> getProblems() {
+            return problems;
+        }
+    }
+
+    /**
+     * Journal of a running batch: the planned steps followed by the index of every completed step
+     */
+    private static class Journal implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer record = ByteBuffer.allocate(4);
+
+        private Journal(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        static Journal create(Path file, Plan plan) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(plan.directory.toString());
+                out.writeInt(plan.steps.size());
+                out.writeInt(plan.firstPhaseSize);
+                for (Step step : plan.steps) {
+                    out.writeUTF(step.from);
+                    out.writeUTF(step.to);
+                }
+            }
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+            // the plan must be on disk before the first move
+            channel.force(true);
+            return new Journal(channel);
+        }
+
+        /**
+         * @return Journal which records nothing
+         */
+        static Journal none() {
+            return new Journal(null);
+        }
+
+        static Journal append(Path file) throws IOException {
+            return new Journal(FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        }
+
+        static Content read(Path file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Unknown journal format: " + file);
+                }
+                Path directory = Paths.get(in.readUTF());
+                int count = in.readInt();
+                int firstPhaseSize = in.readInt();
+                List<Step> first = new ArrayList<>();
+                List<Step> second = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    Step step = new Step(i < firstPhaseSize ? 0 : 1, in.readUTF(), in.readUTF());
+                    (step.phase == 0 ? first : second).add(step);
+                }
+                boolean[] done = new boolean[count];
+                try {
+                    while (true) {
+                        int index = in.readInt();
+                        if (index >= 0 && index < count) {
+                            done[index] = true;
+                        }
+                    }
+                } catch (EOFException e) {
+                    // end of the completion records
+                }
+                return new Content(new Plan(directory, first, second), done);
+            }
+        }
+
+        synchronized void completed(int index) throws IOException {
+            if (channel == null) {
+                return;
+            }
+            record.clear();
+            record.putInt(index).flip();
+            channel.write(record);
+        }
+
+        synchronized void sync() throws IOException {
+            if (channel != null) {
+                channel.force(false);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+
+        static class Content {
+            final Plan plan;
+            final boolean[] done;
+
+            Content(Plan plan, boolean[] done) {
+                this.plan = plan;
+                this.done = done;
+            }
+        }
+    }
+}
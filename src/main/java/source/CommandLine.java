@@ -0,0 +1,533 @@
+package source;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Entry point of the program. Without arguments the window is opened, otherwise a command is run without
+ * loading any user interface, so the program can be used in scripts.
+ */
+public class CommandLine {
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java -jar FileManager.jar [command [options] [arguments]]",
+            "Without a command the window is opened.",
+            "",
+            "Commands:",
+            "  sizes [--json] [--links] DIRECTORY...",
+            "      Prints size, file count and name of every entry, largest first. With --links symbolic links",
+            "      are followed, files reached through several links are counted once and the allocated size",
+            "      is printed after the size",
+            "  duplicates [--json] [--min-size BYTES] DIRECTORY...",
+            "      Prints groups of files with identical content, most reclaimable space first",
+            "  rename [--regex] [--case none|upper|lower|title] [--scope name|base|extension]",
+            "         [--dry-run] [--json] SEARCH REPLACEMENT DIRECTORY...",
+            "      Renames the entries of the directories, SEARCH may be empty to add a prefix",
+            "  journals [--json]",
+            "      Lists renames which were interrupted",
+            "  resume JOURNAL...",
+            "      Completes interrupted renames",
+            "  rollback JOURNAL...",
+            "      Undoes interrupted renames",
+            "  help",
+            "      Prints this text",
+            "",
+            "A DIRECTORY may lead into a zip or jar archive, e.g. backup.zip/photos.",
+            "Output is one tab separated line per entry, or one JSON object per line with --json.",
+            "With --trace every rename is logged, with --metrics timings are printed as JSON at the end.",
+            "Both are written to the error stream.");
+
+    private final PrintWriter out;
+    private volatile boolean interrupted;
+
+    private boolean json;
+    private boolean regex;
+    private boolean dryRun;
+    private boolean links;
+    private boolean metrics;
+    private long minSize = 1;
+    private RenamePipeline.CaseMode caseMode = RenamePipeline.CaseMode.NONE;
+    private RenamePipeline.Scope scope = RenamePipeline.Scope.NAME;
+    private final List<String> arguments = new ArrayList<>();
+
+    private CommandLine(PrintWriter out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            MainWindow.main(args);
+            return;
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out,
+                StandardCharsets.UTF_8)));
+        CommandLine commandLine = new CommandLine(out);
+        CountDownLatch finished = new CountDownLatch(1);
+        // on Ctrl+C running renames are rolled back before the program exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            commandLine.interrupted = true;
+            try {
+                finished.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        }));
+        Metrics.start();
+        int status;
+        try {
+            status = commandLine.run(args);
+        } finally {
+            out.flush();
+            finished.countDown();
+        }
+        if (commandLine.metrics) {
+            System.err.println(Metrics.toJson());
+        }
+        System.exit(status);
+    }
+
+    /**
+     * Runs a command
+     *
+     * @param args Command followed by its options and arguments
+     * @return Exit status
+     */
+    private int run(String[] args) {
+        String command = args[0];
+        try {
+            parseOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        switch (command) {
+            case "sizes":
+                return arguments.isEmpty() ? usage() : sizes();
+            case "rename":
+                return arguments.size() < 3 ? usage() : rename();
+            case "duplicates":
+                return arguments.isEmpty() ? usage() : duplicates();
+            case "journals":
+                return journals();
+            case "resume":
+            case "rollback":
+                return arguments.isEmpty() ? usage() : recover(command.equals("resume"));
+            case "help":
+            case "--help":
+            case "-h":
+                System.out.println(USAGE);
+                return EXIT_OK;
+            default:
+                System.err.println("Unknown command: " + command);
+                return usage();
+        }
+    }
+
+    private void parseOptions(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--json":
+                    json = true;
+                    break;
+                case "--regex":
+                    regex = true;
+                    break;
+                case "--dry-run":
+                    dryRun = true;
+                    break;
+                case "--links":
+                    links = true;
+                    break;
+                case "--trace":
+                    Trace.enable();
+                    break;
+                case "--metrics":
+                    metrics = true;
+                    break;
+                case "--min-size":
+                    String size = ++i < args.length ? args[i] : "";
+                    try {
+                        minSize = Long.parseLong(size);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid value for --min-size: " + size);
+                    }
+                    break;
+                case "--case":
+                    caseMode = RenamePipeline.CaseMode.valueOf(choice(args, ++i, arg, "none", "upper", "lower",
+                            "title"));
+                    break;
+                case "--scope":
+                    String value = choice(args, ++i, arg, "name", "base", "extension");
+                    scope = RenamePipeline.Scope.valueOf(value.equals("BASE") ? "BASE_NAME" : value);
+                    break;
+                case "--":
+                    for (i++; i < args.length; i++) {
+                        arguments.add(args[i]);
+                    }
+                    break;
+                default:
+                    if (arg.startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    arguments.add(arg);
+            }
+        }
+    }
+
+    /**
+     * @return Value of an option in upper case
+     */
+    private static String choice(String[] args, int i, String option, String... choices) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        for (String choice : choices) {
+            if (choice.equalsIgnoreCase(args[i])) {
+                return choice.toUpperCase(Locale.ROOT);
+            }
+        }
+        throw new IllegalArgumentException("Invalid value for " + option + ": " + args[i]);
+    }
+
+    private int usage() {
+        System.err.println(USAGE);
+        return EXIT_USAGE;
+    }
+
+    /**
+     * Prints the size of the entries of every directory
+     */
+    private int sizes() {
+        SizeIndex index = new SizeIndex(SizeIndex.defaultLocation());
+        DirectorySizeScanner scanner = new DirectorySizeScanner(Runtime.getRuntime().availableProcessors(), index);
+        int status = EXIT_OK;
+        try {
+            for (String argument : arguments) {
+                Path directory = directory(argument);
+                if (directory == null) {
+                    status = EXIT_FAILED;
+                    continue;
+                }
+                List<Directory> entries;
+                try {
+                    entries = scanner.getDirectorySizes(directory, new DirectorySizeScanner.Progress() {
+                        @Override
+                        public void measured(Directory entry, int done, int total) {
+                        }
+
+                        @Override
+                        public void skipped(Path file) {
+                            // stdout only carries the results
+                            System.err.println("Unsupported file type: " + PathResolver.toString(file));
+                        }
+
+                        @Override
+                        public boolean isCancelled() {
+                            return interrupted;
+                        }
+                    }, links);
+                } catch (IOException e) {
+                    System.err.println("Unable to analyze " + argument + ": " + e.toString());
+                    status = EXIT_FAILED;
+                    continue;
+                } catch (CancellationException e) {
+                    return EXIT_FAILED;
+                }
+                for (Directory entry : entries) {
+                    if (json) {
+                        out.println("{\"directory\":" + quote(PathResolver.toString(directory)) + ",\"name\":"
+                                + quote(entry.getName()) + ",\"size\":" + entry.getSize()
+                                + (links ? ",\"allocated\":" + entry.getAllocatedSize() : "") + ",\"files\":"
+                                + entry.getFileCount() + ",\"lastModified\":" + entry.getLastModified() + "}");
+                    } else {
+                        out.println(entry.getSize() + (links ? "\t" + entry.getAllocatedSize() : "") + "\t"
+                                + entry.getFileCount() + "\t"
+                                + PathResolver.toString(directory.resolve(entry.getName())));
+                    }
+                }
+                out.flush();
+            }
+        } finally {
+            scanner.shutdown();
+            try {
+                index.save();
+            } catch (IOException e) {
+                System.err.println("Unable to save size index: " + e.toString());
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Renames the entries of every directory with the same rules as the window
+     */
+    private int rename() {
+        RenamePipeline pipeline;
+        try {
+            pipeline = RenamePipeline.compile(arguments.get(0), arguments.get(1), regex, caseMode, scope);
+        } catch (PatternSyntaxException e) {
+            System.err.println(e.getMessage());
+            return EXIT_USAGE;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid replacement: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        BatchRenamer renamer = new BatchRenamer(BatchRenamer.defaultJournalDirectory(),
+                Runtime.getRuntime().availableProcessors() * 2);
+        int status = EXIT_OK;
+        for (String argument : arguments.subList(2, arguments.size())) {
+            if (interrupted) {
+                return EXIT_FAILED;
+            }
+            Path directory = directory(argument);
+            if (directory == null) {
+                status = EXIT_FAILED;
+                continue;
+            }
+            Map<String, String> renames;
+            BatchRenamer.Plan plan;
+            try {
+                renames = new RenamePlanner(directory, pipeline).plan(RenamePlanner.list(directory));
+                plan = renamer.plan(directory, renames);
+            } catch (IOException e) {
+                System.err.println("Unable to list " + directory + ": " + e.toString());
+                status = EXIT_FAILED;
+                continue;
+            } catch (BatchRenamer.RenameException e) {
+                for (String problem : e.getProblems()) {
+                    System.err.println(directory + ": " + problem);
+                }
+                status = EXIT_FAILED;
+                continue;
+            }
+
+            BatchRenamer.Result result = null;
+            if (!dryRun && plan.size() > 0) {
+                try {
+                    result = renamer.execute(plan, new BatchRenamer.Progress() {
+                        @Override
+                        public void moved(BatchRenamer.Step step, int done, int total) {
+                        }
+
+                        @Override
+                        public boolean isCancelled() {
+                            return interrupted;
+                        }
+                    });
+                } catch (IOException e) {
+                    System.err.println("Unable to rename in " + directory + ": " + e.toString());
+                    status = EXIT_FAILED;
+                    continue;
+                }
+            }
+            if (result == null || !result.isRolledBack()) {
+                for (Map.Entry<String, String> rename : renames.entrySet()) {
+                    if (json) {
+                        out.println("{\"directory\":" + quote(PathResolver.toString(directory)) + ",\"from\":"
+                                + quote(rename.getKey()) + ",\"to\":" + quote(rename.getValue()) + "}");
+                    } else {
+                        out.println(PathResolver.toString(directory.resolve(rename.getKey())) + "\t"
+                                + rename.getValue());
+                    }
+                }
+            }
+            out.flush();
+            if (result != null && printErrors(directory, result)) {
+                status = EXIT_FAILED;
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Prints the groups of identical files below every directory
+     */
+    private int duplicates() {
+        DuplicateFinder finder = new DuplicateFinder(Runtime.getRuntime().availableProcessors());
+        int status = EXIT_OK;
+        try {
+            for (String argument : arguments) {
+                Path directory = directory(argument);
+                if (directory == null) {
+                    status = EXIT_FAILED;
+                    continue;
+                }
+                List<DuplicateFinder.Group> groups;
+                try {
+                    groups = finder.find(directory, minSize, new DuplicateFinder.Progress() {
+                        @Override
+                        public void progress(int stage, long done, long total) {
+                        }
+
+                        @Override
+                        public boolean isCancelled() {
+                            return interrupted;
+                        }
+                    });
+                } catch (CancellationException e) {
+                    return EXIT_FAILED;
+                }
+                for (DuplicateFinder.Group group : groups) {
+                    StringBuilder line = new StringBuilder();
+                    if (json) {
+                        line.append("{\"size\":").append(group.getSize()).append(",\"reclaimable\":")
+                                .append(group.getReclaimable()).append(",\"files\":[");
+                        for (int i = 0; i < group.getFiles().size(); i++) {
+                            line.append(i > 0 ? "," : "")
+                                    .append(quote(PathResolver.toString(group.getFiles().get(i))));
+                        }
+                        line.append("]}");
+                    } else {
+                        line.append(group.getReclaimable()).append('\t').append(group.getSize());
+                        for (Path file : group.getFiles()) {
+                            line.append('\t').append(PathResolver.toString(file));
+                        }
+                    }
+                    out.println(line);
+                }
+                out.flush();
+            }
+        } finally {
+            finder.shutdown();
+        }
+        return status;
+    }
+
+    /**
+     * @param argument Directory given on the command line, possibly leading into an archive
+     * @return Absolute path of the directory, or null if an archive on the way cannot be opened
+     */
+    private static Path directory(String argument) {
+        try {
+            return PathResolver.resolve(argument);
+        } catch (IOException e) {
+            System.err.println("Unable to open " + argument + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Lists the journals of interrupted renames
+     */
+    private int journals() {
+        BatchRenamer renamer = new BatchRenamer(BatchRenamer.defaultJournalDirectory(), 1);
+        try {
+            for (Path journal : renamer.pendingJournals()) {
+                Path directory = BatchRenamer.directoryOf(journal);
+                if (json) {
+                    out.println("{\"journal\":" + quote(journal.toString()) + ",\"directory\":"
+                            + quote(directory.toString()) + "}");
+                } else {
+                    out.println(journal + "\t" + directory);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to read rename journals: " + e.toString());
+            return EXIT_FAILED;
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * Completes or undoes interrupted renames
+     *
+     * @param resume true to complete the renames, false to undo them
+     */
+    private int recover(boolean resume) {
+        BatchRenamer renamer = new BatchRenamer(BatchRenamer.defaultJournalDirectory(),
+                Runtime.getRuntime().availableProcessors() * 2);
+        int status = EXIT_OK;
+        for (String argument : arguments) {
+            Path journal = Paths.get(argument);
+            if (!Files.isRegularFile(journal)) {
+                System.err.println("No such journal: " + journal);
+                status = EXIT_FAILED;
+                continue;
+            }
+            try {
+                Path directory = BatchRenamer.directoryOf(journal);
+                BatchRenamer.Result result = resume ? renamer.resume(journal) : renamer.rollback(journal);
+                if (printErrors(directory, result)) {
+                    status = EXIT_FAILED;
+                }
+            } catch (IOException e) {
+                System.err.println("Unable to read " + journal + ": " + e.toString());
+                status = EXIT_FAILED;
+            }
+        }
+        return status;
+    }
+
+    /**
+     * @return true if the batch failed
+     */
+    private static boolean printErrors(Path directory, BatchRenamer.Result result) {
+        for (String error : result.getErrors()) {
+            System.err.println(directory + ": " + error);
+        }
+        if (result.isRolledBack()) {
+            System.err.println(directory + ": rolled back");
+        }
+        if (result.isIncomplete()) {
+            System.err.println(directory + ": incomplete, see the journals command");
+        }
+        return !result.getErrors().isEmpty() || result.isRolledBack() || result.isIncomplete();
+    }
+
+    /**
+     * Encodes a string as JSON string literal
+     *
+     * @param value String to encode
+     * @return Quoted and escaped string
+     */
+    static String quote(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
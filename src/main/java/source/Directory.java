@@ -3,18 +3,53 @@ package source;
 public class Directory {
 
     private final String name;
-    private final Long size;
+    private final long size;
+    private final long allocatedSize;
+    private final long fileCount;
+    private final long lastModified;
 
-    public Directory(String name, Long size) {
+    public Directory(String name, long size) {
+        this(name, size, 1, 0);
+    }
+
+    public Directory(String name, long size, long fileCount, long lastModified) {
+        this(name, size, -1, fileCount, lastModified);
+    }
+
+    public Directory(String name, long size, long allocatedSize, long fileCount, long lastModified) {
         this.name = name;
         this.size = size;
+        this.allocatedSize = allocatedSize;
+        this.fileCount = fileCount;
+        this.lastModified = lastModified;
     }
 
     public String getName() {
         return name;
     }
 
-    public Long getSize() {
+    public long getSize() {
         return size;
     }
+
+    /**
+     * @return Space allocated on disk for the contained files, -1 if it was not determined
+     */
+    public long getAllocatedSize() {
+        return allocatedSize;
+    }
+
+    /**
+     * @return Number of files contained, 1 for a plain file
+     */
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return Last modification time in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
 }
@@ -0,0 +1,445 @@
+package source;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes directory sizes in parallel. Every directory is listed by its own fork/join task, so large
+ * subtrees are spread over all workers of the pool by work stealing. If a {@link SizeIndex} is given,
+ * directories which did not change since the last scan are taken from the index instead of being listed.
+ * Directories of other file systems, e.g. inside archives, work the same way but are never indexed.
+ */
+public class DirectorySizeScanner {
+
+    private final ForkJoinPool pool;
+    private final SizeIndex index;
+
+    /**
+     * Creates a scanner using one worker per available processor
+     */
+    public DirectorySizeScanner() {
+        this(Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * Creates a scanner with the given number of workers
+     *
+     * @param parallelism Number of threads used for scanning
+     * @param index       Index of previous scans, may be null
+     */
+    public DirectorySizeScanner(int parallelism, SizeIndex index) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.index = index;
+    }
+
+    /**
+     * Determines the size of each file and directory directly inside the given directory
+     *
+     * @param directory Directory which should be analyzed
+     * @return List of files and directories with corresponding size, ordered by size
+     * @throws IOException if the directory cannot be listed
+     */
+    public List<Directory> getDirectorySizes(Path directory) throws IOException {
+        return getDirectorySizes(directory, null);
+    }
+
+    /**
+     * Determines the size of each file and directory directly inside the given directory
+     *
+     * @param directory Directory which should be analyzed
+     * @param progress  Notified about every measured entry and asked for cancellation, may be null
+     * @return List of files and directories with corresponding size, ordered by size
+     * @throws IOException           if the directory cannot be listed
+     * @throws CancellationException if the scan was cancelled
+     */
+    public List<Directory> getDirectorySizes(Path directory, Progress progress) throws IOException {
+        return getDirectorySizes(directory, progress, false);
+    }
+
+    /**
+     * Determines the size of each file and directory directly inside the given directory. A link aware scan
+     * follows symbolic links, counts every file and directory only once even if it is reached through
+     * several hard or symbolic links, and also determines the space allocated on disk. It neither reads
+     * nor updates the index, since its sizes depend on which link was visited first.
+     *
+     * @param directory Directory which should be analyzed
+     * @param progress  Notified about every measured entry and asked for cancellation, may be null
+     * @param linkAware true for a link aware scan
+     * @return List of files and directories with corresponding size, ordered by size
+     * @throws IOException           if the directory cannot be listed
+     * @throws CancellationException if the scan was cancelled
+     */
+    public List<Directory> getDirectorySizes(Path directory, Progress progress, boolean linkAware)
+            throws IOException {
+        long start = System.nanoTime();
+        List<Directory> fList = new ArrayList<>();
+        List<SizeTask> tasks = new ArrayList<>();
+        LinkTracker links = linkAware ? new LinkTracker(directory) : null;
+
+        listDirectory(directory, links, (file, attrs) -> {
+            if (attrs.isDirectory()) {
+                tasks.add(new SizeTask(file, attrs.lastModifiedTime().toMillis(), progress, null, null, 0,
+                        links));
+            } else if (attrs.isRegularFile()) {
+                fList.add(new Directory(file.getFileName().toString(), attrs.size(),
+                        links != null ? links.allocated(attrs) : -1, 1, attrs.lastModifiedTime().toMillis()));
+            } else if (progress != null) {
+                progress.skipped(file);
+            }
+        });
+
+        int total = fList.size() + tasks.size();
+        if (progress != null) {
+            for (int i = 0; i < fList.size(); i++) {
+                progress.measured(fList.get(i), i + 1, total);
+            }
+        }
+        for (SizeTask task : tasks) {
+            pool.execute(task);
+        }
+        for (SizeTask task : tasks) {
+            Directory result = task.join();
+            if (cancelled(progress)) {
+                throw new CancellationException();
+            }
+            fList.add(result);
+            if (progress != null) {
+                progress.measured(result, fList.size(), total);
+            }
+        }
+
+        fList.sort((o1, o2) -> Long.compare(o2.getSize(), o1.getSize()));
+        long files = 0;
+        long bytes = 0;
+        for (Directory entry : fList) {
+            files += entry.getFileCount();
+            bytes += entry.getSize();
+        }
+        Metrics.SIZE_SCAN.record(start, files, bytes);
+        return fList;
+    }
+
+    /**
+     * Scans a whole tree into a compact store, e.g. to browse it without further file access. The store
+     * can be read while it is filled: a directory's children are added once it has been listed, and its
+     * size is final once it is complete. The index is not used for reading, since every file is visited,
+     * but it is updated.
+     *
+     * @param directory Directory to scan
+     * @param progress  Notified about every measured direct subdirectory and asked for cancellation, may be
+     *                  null
+     * @param analysis  Receives every file and directory of the tree except the directory itself, may be null
+     * @param tree      Store receiving the tree, created for the given directory
+     * @throws IOException           if the directory cannot be accessed
+     * @throws CancellationException if the scan was cancelled
+     */
+    public void scanTree(Path directory, Progress progress, TreeAnalysis analysis, TreeStore tree)
+            throws IOException {
+        long start = System.nanoTime();
+        long lastModified = Files.getLastModifiedTime(directory).toMillis();
+        Directory result = pool.invoke(new SizeTask(directory, lastModified, progress, analysis, tree, 0, null));
+        if (cancelled(progress)) {
+            throw new CancellationException();
+        }
+        Metrics.SIZE_SCAN.record(start, result.getFileCount(), result.getSize());
+    }
+
+    /**
+     * Sums up the size of all files in a directory and its subdirectories
+     *
+     * @param directory Directory to be measured
+     * @return Size of the directory
+     * @throws IOException if the directory cannot be accessed
+     */
+    public long getFolderSize(Path directory) throws IOException {
+        long lastModified = Files.getLastModifiedTime(directory).toMillis();
+        return pool.invoke(new SizeTask(directory, lastModified, null, null, null, 0, null)).getSize();
+    }
+
+    /**
+     * Stops the workers of this scanner
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Visits the direct children of a directory, reading the attributes of each entry only once
+     *
+     * @param directory Directory to list
+     * @param visitor   Callback for every entry
+     * @throws IOException if the directory cannot be opened
+     */
+    static void listDirectory(Path directory, EntryVisitor visitor) throws IOException {
+        listDirectory(directory, EnumSet.noneOf(FileVisitOption.class), visitor);
+    }
+
+    /**
+     * Visits the direct children of a directory, reading the attributes of each entry only once
+     *
+     * @param directory Directory to list
+     * @param options   {@link FileVisitOption#FOLLOW_LINKS} to list a directory reached through a symbolic
+     *                  link and to pass the attributes of the targets of links among the entries
+     * @param visitor   Callback for every entry
+     * @throws IOException if the directory cannot be opened
+     */
+    static void listDirectory(Path directory, Set<FileVisitOption> options, EntryVisitor visitor)
+            throws IOException {
+        long start = System.nanoTime();
+        long[] entries = {0};
+        Files.walkFileTree(directory, options, 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                entries[0]++;
+                visitor.visit(file, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (file.equals(directory)) {
+                    throw exc;
+                }
+                // unreadable entries are skipped like before
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Metrics.STAT.add(entries[0]);
+        Metrics.LISTING.record(start, entries[0], 0);
+    }
+
+    private static boolean cancelled(Progress progress) {
+        return progress != null && progress.isCancelled();
+    }
+
+    /**
+     * Receives the progress of a scan
+     */
+    public interface Progress {
+        /**
+         * Called whenever a direct child of the scanned directory has been measured
+         *
+         * @param entry Measured file or directory
+         * @param done  Number of measured children
+         * @param total Number of children
+         */
+        void measured(Directory entry, int done, int total);
+
+        /**
+         * Called for direct children which are neither files nor directories, e.g. broken links, and are
+         * therefore not measured
+         *
+         * @param file Skipped entry
+         */
+        default void skipped(Path file) {
+        }
+
+        /**
+         * @return true if the scan should stop as soon as possible
+         */
+        boolean isCancelled();
+    }
+
+    /**
+     * Callback for a single directory entry
+     */
+    interface EntryVisitor {
+        void visit(Path file, BasicFileAttributes attrs);
+    }
+
+    /**
+     * Lists a directory through the tracker of a link aware scan, otherwise without following links
+     */
+    private static void listDirectory(Path directory, LinkTracker links, EntryVisitor visitor)
+            throws IOException {
+        if (links != null) {
+            links.listDirectory(directory, visitor);
+        } else {
+            listDirectory(directory, visitor);
+        }
+    }
+
+    /**
+     * Task measuring a single directory, forking a subtask for every subdirectory
+     */
+    private class SizeTask extends RecursiveTask<Directory> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final long lastModified;
+        private final Progress progress;
+        private final TreeAnalysis analysis;
+        private final TreeStore tree;
+        private final int node;
+        private final LinkTracker links;
+        private final SizeIndex index;
+
+        SizeTask(Path directory, long lastModified, Progress progress, TreeAnalysis analysis, TreeStore tree,
+                 int node, LinkTracker links) {
+            this.directory = directory;
+            this.lastModified = lastModified;
+            this.progress = progress;
+            this.analysis = analysis;
+            this.tree = tree;
+            this.node = node;
+            this.links = links;
+            // the index is keyed by path strings, which are ambiguous across file systems
+            this.index = links == null && PathResolver.isDefault(directory) ? DirectorySizeScanner.this.index : null;
+        }
+
+        @Override
+        protected Directory compute() {
+            if (cancelled(progress)) {
+                return new Directory(PathResolver.nameOf(directory), 0, 0, lastModified);
+            }
+            SizeIndex.Entry cached = index != null ? index.get(directory) : null;
+            List<SizeTask> subtasks = new ArrayList<>();
+            long ownSize = 0;
+            long ownFiles = 0;
+            long ownAllocated = 0;
+
+            if (cached != null && cached.lastModified == lastModified && analysis == null && tree == null) {
+                // unchanged directory, only its subdirectories need to be checked
+                ownSize = cached.ownSize;
+                ownFiles = cached.ownFiles;
+                for (String name : cached.subdirectories) {
+                    Path subdirectory = directory.resolve(name);
+                    try {
+                        BasicFileAttributes attrs = Files.readAttributes(subdirectory, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                        Metrics.STAT.increment();
+                        SizeTask task = new SizeTask(subdirectory, attrs.lastModifiedTime().toMillis(), progress,
+                                null, null, 0, links);
+                        task.fork();
+                        subtasks.add(task);
+                    } catch (IOException e) {
+                        index.removeTree(subdirectory);
+                    }
+                }
+            } else {
+                long[] own = {0, 0, 0};
+                Listing listing = tree != null ? new Listing() : null;
+                try {
+                    listDirectory(directory, links, (file, attrs) -> {
+                        if (listing != null) {
+                            // subtasks need the node of their directory, which exists once all are listed
+                            listing.add(file, attrs);
+                            if (attrs.isDirectory()) {
+                                return;
+                            }
+                        }
+                        if (attrs.isDirectory()) {
+                            SizeTask task = new SizeTask(file, attrs.lastModifiedTime().toMillis(), progress,
+                                    analysis, null, 0, links);
+                            task.fork();
+                            subtasks.add(task);
+                        } else {
+                            if (analysis != null) {
+                                analysis.file(file, attrs);
+                            }
+                            own[0] += attrs.size();
+                            own[1]++;
+                            if (links != null) {
+                                own[2] += links.allocated(attrs);
+                            }
+                        }
+                    });
+                } catch (IOException e) {
+                    // unreadable directories count as empty
+                }
+                if (listing != null) {
+                    int first = tree.addChildren(node, listing.names, listing.sizes, listing.directories,
+                            listing.count);
+                    for (int i = 0; i < listing.count; i++) {
+                        if (listing.directories[i]) {
+                            SizeTask task = new SizeTask(listing.paths[i], listing.lastModified[i], progress,
+                                    analysis, tree, first + i, links);
+                            task.fork();
+                            subtasks.add(task);
+                        }
+                    }
+                }
+                ownSize = own[0];
+                ownFiles = own[1];
+                ownAllocated = own[2];
+            }
+
+            long size = ownSize;
+            long fileCount = ownFiles;
+            long allocated = ownAllocated;
+            String[] subdirectories = new String[subtasks.size()];
+            for (int i = 0; i < subtasks.size(); i++) {
+                Directory result = subtasks.get(i).join();
+                size += result.getSize();
+                fileCount += result.getFileCount();
+                allocated += result.getAllocatedSize();
+                subdirectories[i] = result.getName();
+                if (tree != null && node == 0 && progress != null) {
+                    progress.measured(result, i + 1, subtasks.size());
+                }
+            }
+
+            // results below a cancelled task are incomplete and must not be indexed
+            if (index != null && !cancelled(progress)) {
+                if (cached != null && cached.lastModified != lastModified) {
+                    // forget subdirectories which were removed or renamed
+                    Set<String> current = new HashSet<>(Arrays.asList(subdirectories));
+                    for (String name : cached.subdirectories) {
+                        if (!current.contains(name)) {
+                            index.removeTree(directory.resolve(name));
+                        }
+                    }
+                }
+                if (cached == null || cached.lastModified != lastModified || cached.size != size
+                        || cached.fileCount != fileCount) {
+                    index.put(directory, new SizeIndex.Entry(lastModified, ownSize, ownFiles, size, fileCount,
+                            subdirectories));
+                }
+            }
+            // the root of a tree would always be the largest directory, under an empty name
+            if (analysis != null && !cancelled(progress) && (tree == null || node != 0)) {
+                analysis.directory(directory, size, fileCount, lastModified);
+            }
+            if (tree != null && !cancelled(progress)) {
+                tree.complete(node, size, fileCount);
+            }
+            return new Directory(PathResolver.nameOf(directory), size, links != null ? allocated : -1, fileCount,
+                    lastModified);
+        }
+    }
+
+    /**
+     * Entries of a directory collected before they are added to a tree
+     */
+    private static class Listing {
+        Path[] paths = new Path[16];
+        String[] names = new String[16];
+        long[] sizes = new long[16];
+        long[] lastModified = new long[16];
+        boolean[] directories = new boolean[16];
+        int count;
+
+        void add(Path file, BasicFileAttributes attrs) {
+            if (count == paths.length) {
+                int capacity = count * 2;
+                paths = Arrays.copyOf(paths, capacity);
+                names = Arrays.copyOf(names, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                lastModified = Arrays.copyOf(lastModified, capacity);
+                directories = Arrays.copyOf(directories, capacity);
+            }
+            paths[count] = file;
+            names[count] = file.getFileName().toString();
+            sizes[count] = attrs.size();
+            lastModified[count] = attrs.lastModifiedTime().toMillis();
+            directories[count] = attrs.isDirectory();
+            count++;
+        }
+    }
+}
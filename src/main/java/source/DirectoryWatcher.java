@@ -0,0 +1,169 @@
+package source;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a directory for created, deleted and renamed entries. Events are collected until the directory
+ * has been quiet for a short time, so a burst of changes is reported to the listener as a single batch.
+ * Modified entries only invalidate the size index, since their name and type stay the same.
+ */
+public class DirectoryWatcher implements Closeable {
+
+    private static final long QUIET_PERIOD = 200;
+    private static final long MAX_DELAY = 1000;
+
+    private final Path directory;
+    private final WatchService watchService;
+    private final Listener listener;
+    private final SizeIndex index;
+    private final Thread thread;
+
+    /**
+     * Starts watching a directory
+     *
+     * @param directory Directory to watch
+     * @param index     Size index to invalidate on changes, may be null
+     * @param listener  Receives the coalesced changes on the watcher thread
+     * @throws IOException if the directory cannot be watched
+     */
+    public DirectoryWatcher(Path directory, SizeIndex index, Listener listener) throws IOException {
+        this.directory = directory;
+        this.index = index;
+        this.listener = listener;
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        thread = new Thread(this::run, "DirectoryWatcher " + directory);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return Watched directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                Set<String> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                long deadline = System.currentTimeMillis() + MAX_DELAY;
+
+                // collect events until the directory is quiet or the maximum delay is reached
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            overflow = true;
+                        } else if (event.kind() != ENTRY_MODIFY) {
+                            changed.add(event.context().toString());
+                        }
+                    }
+                    if (!key.reset()) {
+                        // directory is gone
+                        overflow = true;
+                        break;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    key = remaining > 0
+                            ? watchService.poll(Math.min(QUIET_PERIOD, remaining), TimeUnit.MILLISECONDS)
+                            : null;
+                }
+
+                if (index != null) {
+                    index.invalidate(directory);
+                }
+                if (overflow || !changed.isEmpty()) {
+                    listener.changesDetected(overflow ? null : resolve(changed));
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // watcher was closed
+        }
+    }
+
+    /**
+     * Determines the current state of every changed entry
+     *
+     * @param names Names of the changed entries
+     * @return Current state of the entries
+     */
+    private List<Change> resolve(Set<String> names) {
+        List<Change> changes = new ArrayList<>(names.size());
+        for (String name : names) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(directory.resolve(name), BasicFileAttributes.class);
+                changes.add(new Change(name, true, attrs.isDirectory(), attrs.lastModifiedTime().toMillis()));
+            } catch (IOException e) {
+                changes.add(new Change(name, false, false, 0));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Receives the changes of the watched directory
+     */
+    public interface Listener {
+        /**
+         * Called once per batch of changes
+         *
+         * @param changes Changed entries, or null if events were lost and the directory has to be reloaded
+         */
+        void changesDetected(List<Change> changes);
+    }
+
+    /**
+     * Current state of a changed directory entry
+     */
+    public static class Change {
+        private final String name;
+        private final boolean exists;
+        private final boolean directory;
+        private final long lastModified;
+
+        Change(String name, boolean exists, boolean directory, long lastModified) {
+            this.name = name;
+            this.exists = exists;
+            this.directory = directory;
+            this.lastModified = lastModified;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean exists() {
+            return exists;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        /**
+         * @return Modification time in milliseconds, 0 if the entry no longer exists
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,605 @@
+package source;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Finds files with identical content in three stages: files are grouped by size, files of equal size are
+ * compared by a hash of their first and last block, and the remaining candidates by a hash of their whole
+ * content. Files are hashed on a parallel pool, large regions are read through memory mapped file channels.
+ * <p>
+ * The first pass only tracks the sizes seen in a fixed size bit set and counts the files per size range.
+ * Files sharing their size with another file become candidates, which are then collected and compared one
+ * range of sizes at a time, each range holding at most a batch of candidates. Memory therefore stays
+ * bounded by the batch, derived from the maximum heap, plus the duplicates found; only files of one exact
+ * size range which alone exceeds the batch are held together. Each range after the first costs another
+ * walk of the tree.
+ * <p>
+ * Hard links to the same file are no duplicates, deleting one of them frees no space. Candidates are
+ * therefore reduced to one path per file key before they are hashed.
+ */
+public class DuplicateFinder {
+
+    private static final int BLOCK_SIZE = 16 * 1024;
+    private static final long REGION_SIZE = 64L << 20;
+    /**
+     * Regions smaller than this are read instead of mapped, mapping costs more than it saves for them
+     */
+    private static final long MAP_THRESHOLD = 256 * 1024;
+    private static final int FILTER_BITS = 1 << 27;
+    private static final int CHUNK_SIZE = 64;
+    /**
+     * Estimated heap taken by a candidate including its path, file key and hash, used to derive the batch size
+     */
+    private static final long CANDIDATE_BYTES = 352;
+    private static final int MIN_BATCH_SIZE = 10_000;
+
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<ByteBuffer> buffers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect((int) MAP_THRESHOLD));
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final ForkJoinPool pool;
+    private final long batchSize;
+
+    /**
+     * Creates a finder whose candidates take up at most about a quarter of the maximum heap
+     *
+     * @param parallelism Number of threads used for listing and hashing
+     */
+    public DuplicateFinder(int parallelism) {
+        this(parallelism, Math.max(MIN_BATCH_SIZE, Runtime.getRuntime().maxMemory() / 4 / CANDIDATE_BYTES));
+    }
+
+    /**
+     * @param parallelism Number of threads used for listing and hashing
+     * @param batchSize   Number of candidates compared at a time
+     */
+    DuplicateFinder(int parallelism, long batchSize) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Searches a directory and its subdirectories for files with identical content
+     *
+     * @param directory Directory to search
+     * @param minSize   Smallest file size considered, at least 1 since empty files are all equal
+     * @param progress  Notified about the progress and asked for cancellation, may be null
+     * @return Groups of identical files, the group freeing the most space first
+     * @throws CancellationException if the search was cancelled
+     */
+    public List<Group> find(Path directory, long minSize, Progress progress) {
+        long min = Math.max(1, minSize);
+
+        // stage 1: sizes occurring more than once, false positives are removed when grouping
+        SizeFilter filter = new SizeFilter(FILTER_BITS);
+        Histogram files = new Histogram();
+        AtomicLong seen = new AtomicLong();
+        pool.invoke(new Walk(directory, progress, (file, attrs) -> {
+            if (attrs.isRegularFile() && attrs.size() >= min) {
+                filter.add(attrs.size());
+                files.add(attrs.size());
+                long count = seen.incrementAndGet();
+                if (progress != null && (count & 1023) == 0) {
+                    progress.progress(1, count, -1);
+                }
+            }
+        }));
+        checkCancelled(progress);
+
+        // the first range is bounded by all files, the later ones by the candidates counted meanwhile
+        List<Group> duplicates = new ArrayList<>();
+        Histogram candidateSizes = new Histogram();
+        long from = min;
+        while (from != Long.MAX_VALUE) {
+            long to = (from == min ? files : candidateSizes).rangeEnd(from, batchSize);
+            List<Candidate> candidates = collect(directory, min, from, to, filter,
+                    from == min ? candidateSizes : null, progress);
+            compare(candidates, progress, duplicates);
+            from = to;
+        }
+        duplicates.sort((o1, o2) -> Long.compare(o2.getReclaimable(), o1.getReclaimable()));
+        return duplicates;
+    }
+
+    /**
+     * Collects the candidates of one size range
+     *
+     * @param from  Smallest size of the range
+     * @param to    Size behind the range, {@link Long#MAX_VALUE} for no limit
+     * @param sizes Receives the sizes of all candidates, also outside of the range, may be null
+     */
+    private List<Candidate> collect(Path directory, long min, long from, long to, SizeFilter filter,
+                                    Histogram sizes, Progress progress) {
+        List<Candidate> candidates = Collections.synchronizedList(new ArrayList<>());
+        pool.invoke(new Walk(directory, progress, (file, attrs) -> {
+            long size = attrs.size();
+            if (attrs.isRegularFile() && size >= min && filter.mightBeDuplicate(size)) {
+                if (sizes != null) {
+                    sizes.add(size);
+                }
+                if (size >= from && (size < to || to == Long.MAX_VALUE)) {
+                    candidates.add(new Candidate(file, size, attrs.fileKey()));
+                }
+            }
+        }));
+        checkCancelled(progress);
+        return candidates;
+    }
+
+    /**
+     * Compares the candidates of one size range by their content
+     *
+     * @param candidates Candidates, reordered and emptied
+     * @param duplicates Receives the groups of identical files
+     */
+    private void compare(List<Candidate> candidates, Progress progress, List<Group> duplicates) {
+        prune(candidates, false);
+        dropLinks(candidates);
+        prune(candidates, false);
+
+        // stage 2: first and last block, which is the whole content of small files
+        hash(candidates, false, 2, progress);
+        prune(candidates, true);
+
+        // stage 3: whole content of the remaining larger files
+        List<Candidate> full = new ArrayList<>();
+        List<List<Candidate>> result = new ArrayList<>();
+        for (List<Candidate> group : split(candidates, true)) {
+            if (group.get(0).size > 2L * BLOCK_SIZE) {
+                full.addAll(group);
+            } else {
+                result.add(group);
+            }
+        }
+        hash(full, true, 3, progress);
+        prune(full, true);
+        result.addAll(split(full, true));
+
+        for (List<Candidate> group : result) {
+            List<Path> paths = new ArrayList<>(group.size());
+            for (Candidate candidate : group) {
+                paths.add(candidate.path);
+            }
+            Collections.sort(paths);
+            duplicates.add(new Group(group.get(0).size, paths));
+        }
+        candidates.clear();
+    }
+
+    /**
+     * Stops the workers of this finder
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static void checkCancelled(Progress progress) {
+        if (progress != null && progress.isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Sorts candidates by size and hash, if requested, or else path, so equal candidates follow each other.
+     * Unreadable files and candidates without an equal one are removed in place.
+     */
+    private static void prune(List<Candidate> candidates, boolean byHash) {
+        candidates.removeIf(candidate -> byHash && candidate.hash == null);
+        candidates.sort((o1, o2) -> {
+            int result = Long.compare(o1.size, o2.size);
+            if (result != 0) {
+                return result;
+            }
+            return byHash ? compare(o1.hash, o2.hash) : o1.path.compareTo(o2.path);
+        });
+        int target = 0;
+        for (List<Candidate> group : split(candidates, byHash)) {
+            for (Candidate candidate : group) {
+                candidates.set(target++, candidate);
+            }
+        }
+        candidates.subList(target, candidates.size()).clear();
+    }
+
+    /**
+     * Keeps only the first path of every file among candidates sorted by size, so hard links to one file
+     * are not reported as duplicates of each other. Candidates without a file key are all kept.
+     */
+    private static void dropLinks(List<Candidate> candidates) {
+        Set<Object> keys = new HashSet<>();
+        long size = -1;
+        int target = 0;
+        for (Candidate candidate : candidates) {
+            if (candidate.size != size) {
+                keys.clear();
+                size = candidate.size;
+            }
+            if (candidate.key == null || keys.add(candidate.key)) {
+                candidates.set(target++, candidate);
+            }
+        }
+        candidates.subList(target, candidates.size()).clear();
+    }
+
+    /**
+     * Splits sorted candidates into groups of equal size and, if requested, equal hash. Groups with a single
+     * file are left out, the groups are views of the list.
+     */
+    private static List<List<Candidate>> split(List<Candidate> candidates, boolean byHash) {
+        List<List<Candidate>> groups = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= candidates.size(); i++) {
+            if (i == candidates.size() || candidates.get(i).size != candidates.get(start).size
+                    || (byHash && compare(candidates.get(i).hash, candidates.get(start).hash) != 0)) {
+                if (i - start > 1) {
+                    groups.add(candidates.subList(start, i));
+                }
+                start = i;
+            }
+        }
+        return groups;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return Byte.compare(a[i], b[i]);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Hashes the candidates on the pool
+     */
+    private void hash(List<Candidate> candidates, boolean full, int stage, Progress progress) {
+        AtomicLong done = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int chunk = 0; chunk < candidates.size(); chunk += CHUNK_SIZE) {
+            List<Candidate> part = candidates.subList(chunk, Math.min(chunk + CHUNK_SIZE, candidates.size()));
+            futures.add(pool.submit(() -> {
+                for (Candidate candidate : part) {
+                    if (progress != null && progress.isCancelled()) {
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        candidate.hash = full ? fullHash(candidate) : partialHash(candidate);
+                        Metrics.HASH.record(start, 1, full ? candidate.size : Math.min(candidate.size,
+                                2L * BLOCK_SIZE));
+                    } catch (IOException e) {
+                        // unreadable files cannot be compared
+                        candidate.hash = null;
+                    }
+                    if (progress != null) {
+                        progress.progress(stage, done.incrementAndGet(), candidates.size());
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        checkCancelled(progress);
+    }
+
+    private static byte[] partialHash(Candidate candidate) throws IOException {
+        MessageDigest digest = digests.get();
+        try (FileChannel channel = FileChannel.open(candidate.path, StandardOpenOption.READ)) {
+            if (candidate.size <= 2L * BLOCK_SIZE) {
+                update(digest, channel, 0, candidate.size, false);
+            } else {
+                update(digest, channel, 0, BLOCK_SIZE, false);
+                update(digest, channel, candidate.size - BLOCK_SIZE, BLOCK_SIZE, false);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static byte[] fullHash(Candidate candidate) throws IOException {
+        MessageDigest digest = digests.get();
+        try (FileChannel channel = FileChannel.open(candidate.path, StandardOpenOption.READ)) {
+            // channels of other file systems, e.g. of archives, cannot be mapped
+            update(digest, channel, 0, candidate.size, PathResolver.isDefault(candidate.path));
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Feeds a region of a file to a digest, mapping large regions into memory if possible
+     */
+    private static void update(MessageDigest digest, FileChannel channel, long position, long length,
+                               boolean map) throws IOException {
+        if (length < MAP_THRESHOLD || !map) {
+            ByteBuffer buffer = buffers.get();
+            while (length > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(length, buffer.capacity()));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    // the file was truncated, the digest differs from the other files
+                    return;
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+                length -= read;
+            }
+            return;
+        }
+        while (length > 0) {
+            long region = Math.min(length, REGION_SIZE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, region);
+            try {
+                digest.update(buffer);
+            } finally {
+                unmap(buffer);
+            }
+            position += region;
+            length -= region;
+        }
+    }
+
+    /**
+     * Releases a mapping right away instead of waiting for the garbage collector, so searching many large
+     * files does not exhaust the number of mappings of the process. Looked up reflectively, since the
+     * method only exists on Java 9+.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // the mapping is released by the garbage collector
+        }
+    }
+
+    /**
+     * Receives the progress of a search
+     */
+    public interface Progress {
+        /**
+         * @param stage Current stage: 1 listing, 2 comparing the first and last blocks, 3 comparing contents
+         * @param done  Number of processed files
+         * @param total Number of files to process, -1 while listing
+         */
+        void progress(int stage, long done, long total);
+
+        /**
+         * @return true if the search should stop as soon as possible
+         */
+        boolean isCancelled();
+    }
+
+    /**
+     * Files with identical content
+     */
+    public static class Group {
+        private final long size;
+        private final List<Path> files;
+
+        Group(long size, List<Path> files) {
+            this.size = size;
+            this.files = files;
+        }
+
+        /**
+         * @return Size of each file
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public List<Path> getFiles() {
+            return files;
+        }
+
+        public long getFileCount() {
+            return files.size();
+        }
+
+        /**
+         * @return Space freed by keeping only one of the files
+         */
+        public long getReclaimable() {
+            return size * (files.size() - 1);
+        }
+    }
+
+    private static class Candidate {
+        final Path path;
+        final long size;
+        /**
+         * File key of the file, equal for hard links, null if the file system has none
+         */
+        final Object key;
+        byte[] hash;
+
+        Candidate(Path path, long size, Object key) {
+            this.path = path;
+            this.size = size;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Remembers which sizes were seen once and which more than once. Sizes share bits, so a size may be
+     * reported as seen twice although it was not, but never the other way round.
+     */
+    private static class SizeFilter {
+        private final AtomicLongArray once;
+        private final AtomicLongArray twice;
+        private final int mask;
+
+        SizeFilter(int bits) {
+            once = new AtomicLongArray(bits >>> 6);
+            twice = new AtomicLongArray(bits >>> 6);
+            mask = bits - 1;
+        }
+
+        void add(long size) {
+            int bit = index(size);
+            long flag = 1L << bit;
+            if ((once.getAndAccumulate(bit >>> 6, flag, (a, b) -> a | b) & flag) != 0) {
+                twice.accumulateAndGet(bit >>> 6, flag, (a, b) -> a | b);
+            }
+        }
+
+        boolean mightBeDuplicate(long size) {
+            int bit = index(size);
+            return (twice.get(bit >>> 6) & (1L << bit)) != 0;
+        }
+
+        private int index(long size) {
+            long hash = size * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+
+    /**
+     * Number of files per size range. Sizes below 64 have a range each, larger sizes are split into 64
+     * ranges per power of two, so a range never spans more than 1/64 of its sizes.
+     */
+    private static class Histogram {
+        private static final int BUCKETS = 64 + 58 * 64;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        void add(long size) {
+            counts.incrementAndGet(bucket(size));
+        }
+
+        /**
+         * Determines where a range should end so it holds at most the given number of files, or the files
+         * of a single bucket if that alone holds more
+         *
+         * @param from  Smallest size of the range, the start of a bucket
+         * @param limit Number of files
+         * @return Size behind the range, {@link Long#MAX_VALUE} if it extends to the largest size
+         */
+        long rangeEnd(long from, long limit) {
+            long total = 0;
+            for (int bucket = bucket(from); bucket < BUCKETS; bucket++) {
+                long count = counts.get(bucket);
+                if (total > 0 && total + count > limit) {
+                    return start(bucket);
+                }
+                total += count;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        private static int bucket(long size) {
+            if (size < 64) {
+                return (int) size;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(size);
+            return 64 + (exponent - 6) * 64 + (int) ((size >>> (exponent - 6)) & 63);
+        }
+
+        private static long start(int bucket) {
+            if (bucket < 64) {
+                return bucket;
+            }
+            int exponent = (bucket - 64) / 64 + 6;
+            return (64L + (bucket - 64) % 64) << (exponent - 6);
+        }
+    }
+
+    /**
+     * Visits every entry of a tree, listing the subdirectories in parallel
+     */
+    private static class Walk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final Progress progress;
+        private final DirectorySizeScanner.EntryVisitor visitor;
+
+        Walk(Path directory, Progress progress, DirectorySizeScanner.EntryVisitor visitor) {
+            this.directory = directory;
+            this.progress = progress;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            if (progress != null && progress.isCancelled()) {
+                return;
+            }
+            List<Walk> subtasks = new ArrayList<>();
+            try {
+                DirectorySizeScanner.listDirectory(directory, (file, attrs) -> {
+                    if (attrs.isDirectory()) {
+                        Walk task = new Walk(file, progress, visitor);
+                        task.fork();
+                        subtasks.add(task);
+                    } else {
+                        visitor.visit(file, attrs);
+                    }
+                });
+            } catch (IOException e) {
+                // unreadable directories are skipped
+            }
+            for (Walk task : subtasks) {
+                task.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package source;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * List model for the content of a folder. Directories carry a trailing '/' and are kept in front of the
+ * files. The names are packed into a single char arena with an offset index instead of one String per
+ * entry, and every bulk operation fires a single change event. The modification time of every entry is kept
+ * alongside, so date tokens of the preview need no file access.
+ */
+public class FileListModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private char[] chars = new char[1024];
+    private int used;
+    private int garbage;
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private long[] times = new long[64];
+    private int size;
+    private int directoryCount;
+    private int longest = -1;
+    private Snapshot snapshot;
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return new String(chars, starts[index], lengths[index]);
+    }
+
+    /**
+     * @param index Index of the entry
+     * @return true if the entry is a directory
+     */
+    public boolean isDirectory(int index) {
+        return index < directoryCount;
+    }
+
+    /**
+     * @param index Index of the entry
+     * @return Modification time of the entry in milliseconds, 0 if unknown
+     */
+    public long getLastModified(int index) {
+        return times[index];
+    }
+
+    /**
+     * @return Index of the longest entry, suitable as prototype cell value, or -1 if the model is empty
+     */
+    public int getLongestIndex() {
+        return longest;
+    }
+
+    /**
+     * Returns an immutable copy of the current content which can be read from other threads. The arena
+     * itself is shared, only the index arrays are copied, and the copy is reused until the model changes.
+     *
+     * @return Current content
+     */
+    public Snapshot snapshot() {
+        if (snapshot == null) {
+            snapshot = new Snapshot(chars, Arrays.copyOf(starts, size), Arrays.copyOf(lengths, size),
+                    Arrays.copyOf(times, size), size);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Adds entries with unknown modification times
+     *
+     * @param names Names of the entries
+     */
+    public void add(List<String> names) {
+        add(names, null);
+    }
+
+    /**
+     * Adds entries, directories are inserted behind the other directories and files at the end
+     *
+     * @param names        Names of the entries
+     * @param lastModified Modification times of the entries in the same order, may be null if unknown
+     */
+    public void add(List<String> names, long[] lastModified) {
+        List<String> directories = new ArrayList<>();
+        List<String> files = new ArrayList<>(names.size());
+        long[] directoryTimes = new long[names.size()];
+        long[] fileTimes = new long[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            long time = lastModified != null ? lastModified[i] : 0;
+            if (name.endsWith("/")) {
+                directoryTimes[directories.size()] = time;
+                directories.add(name);
+            } else {
+                fileTimes[files.size()] = time;
+                files.add(name);
+            }
+        }
+        insert(directoryCount, directories, directoryTimes);
+        directoryCount += directories.size();
+        insert(size, files, fileTimes);
+    }
+
+    /**
+     * Removes all entries with the given names
+     *
+     * @param names Names of the entries to remove
+     */
+    public void remove(Set<String> names) {
+        int first = -1;
+        int target = 0;
+        int removedDirectories = 0;
+        for (int i = 0; i < size; i++) {
+            if (names.contains(getElementAt(i))) {
+                if (first < 0) {
+                    first = i;
+                }
+                garbage += lengths[i];
+                if (i < directoryCount) {
+                    removedDirectories++;
+                }
+            } else {
+                starts[target] = starts[i];
+                lengths[target] = lengths[i];
+                times[target] = times[i];
+                target++;
+            }
+        }
+        if (first < 0) {
+            return;
+        }
+        snapshot = null;
+        int oldSize = size;
+        size = target;
+        directoryCount -= removedDirectories;
+        updateLongest();
+        if (garbage > used / 2) {
+            compact();
+        }
+        if (first < size) {
+            fireContentsChanged(this, first, size - 1);
+        }
+        fireIntervalRemoved(this, size, oldSize - 1);
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        snapshot = null;
+        int oldSize = size;
+        size = 0;
+        // snapshots may still read the old arena
+        chars = new char[1024];
+        used = 0;
+        garbage = 0;
+        directoryCount = 0;
+        longest = -1;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+    }
+
+    private void insert(int index, List<String> names, long[] lastModified) {
+        int count = names.size();
+        if (count == 0) {
+            return;
+        }
+        snapshot = null;
+        ensureIndexCapacity(size + count);
+        System.arraycopy(starts, index, starts, index + count, size - index);
+        System.arraycopy(lengths, index, lengths, index + count, size - index);
+        System.arraycopy(times, index, times, index + count, size - index);
+        if (longest >= index) {
+            longest += count;
+        }
+        for (int i = 0; i < count; i++) {
+            String name = names.get(i);
+            ensureCharCapacity(used + name.length());
+            name.getChars(0, name.length(), chars, used);
+            starts[index + i] = used;
+            lengths[index + i] = name.length();
+            times[index + i] = lastModified[i];
+            used += name.length();
+            if (longest < 0 || name.length() > lengths[longest]) {
+                longest = index + i;
+            }
+        }
+        size += count;
+        fireIntervalAdded(this, index, index + count - 1);
+    }
+
+    private void updateLongest() {
+        longest = -1;
+        for (int i = 0; i < size; i++) {
+            if (longest < 0 || lengths[i] > lengths[longest]) {
+                longest = i;
+            }
+        }
+    }
+
+    /**
+     * Drops the characters of removed entries from the arena
+     */
+    private void compact() {
+        char[] packed = new char[Math.max(1024, used - garbage)];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(chars, starts[i], packed, position, lengths[i]);
+            starts[i] = position;
+            position += lengths[i];
+        }
+        chars = packed;
+        used = position;
+        garbage = 0;
+    }
+
+    private void ensureIndexCapacity(int capacity) {
+        if (capacity > starts.length) {
+            int newLength = Math.max(capacity, starts.length * 2);
+            int[] newStarts = new int[newLength];
+            int[] newLengths = new int[newLength];
+            long[] newTimes = new long[newLength];
+            System.arraycopy(starts, 0, newStarts, 0, size);
+            System.arraycopy(lengths, 0, newLengths, 0, size);
+            System.arraycopy(times, 0, newTimes, 0, size);
+            starts = newStarts;
+            lengths = newLengths;
+            times = newTimes;
+        }
+    }
+
+    private void ensureCharCapacity(int capacity) {
+        if (capacity > chars.length) {
+            // a new array keeps the arena of existing snapshots unchanged
+            char[] newChars = new char[Math.max(capacity, chars.length * 2)];
+            System.arraycopy(chars, 0, newChars, 0, used);
+            chars = newChars;
+        }
+    }
+
+    /**
+     * Immutable content of the model at a point in time
+     */
+    public static class Snapshot {
+        private final char[] chars;
+        private final int[] starts;
+        private final int[] lengths;
+        private final long[] times;
+        private final int size;
+
+        Snapshot(char[] chars, int[] starts, int[] lengths, long[] times, int size) {
+            this.chars = chars;
+            this.starts = starts;
+            this.lengths = lengths;
+            this.times = times;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String get(int index) {
+            return new String(chars, starts[index], lengths[index]);
+        }
+
+        /**
+         * @param index Index of the entry
+         * @return Modification time of the entry in milliseconds, 0 if unknown
+         */
+        public long getLastModified(int index) {
+            return times[index];
+        }
+
+        /**
+         * @return Reusable view of single entries, avoiding a String per entry. Not thread safe.
+         */
+        public View view() {
+            return new View();
+        }
+
+        /**
+         * Character sequence showing one entry of the snapshot at a time
+         */
+        public class View implements CharSequence {
+            private int start;
+            private int length;
+
+            /**
+             * Moves the view to another entry
+             *
+             * @param index Index of the entry
+             * @return This view
+             */
+            public View at(int index) {
+                start = starts[index];
+                length = lengths[index];
+                return this;
+            }
+
+            /**
+             * @param other Text to compare with
+             * @return true if the current entry consists of the same characters
+             */
+            public boolean contentEquals(CharSequence other) {
+                if (other.length() != length) {
+                    return false;
+                }
+                for (int i = 0; i < length; i++) {
+                    if (chars[start + i] != other.charAt(i)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public char charAt(int index) {
+                return chars[start + index];
+            }
+
+            @Override
+            public CharSequence subSequence(int from, int to) {
+                return new String(chars, start + from, to - from);
+            }
+
+            @Override
+            public String toString() {
+                return new String(chars, start, length);
+            }
+        }
+    }
+}
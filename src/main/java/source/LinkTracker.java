@@ -0,0 +1,335 @@
+package source;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the files and directories visited by one scan by their file key, so hard links are counted once
+ * and symbolic links to directories can be followed without running into cycles or measuring a shared
+ * subtree twice. On Unix the device and inode numbers are read together with the other attributes and
+ * stored in a primitive hash set; on other file systems file keys are kept as objects. The allocated space
+ * is taken from the number of blocks where the file system reports it, otherwise the size is rounded up to
+ * the block size. Entries without a file key are always counted, and links to them are not followed.
+ */
+class LinkTracker {
+
+    private static final long DEFAULT_BLOCK_SIZE = 4096;
+    /**
+     * Unit of the unix:blocks attribute, like st_blocks
+     */
+    private static final long UNIX_BLOCK_SIZE = 512;
+    private static final String UNIX_ATTRIBUTES =
+            "unix:size,lastModifiedTime,isDirectory,isRegularFile,isSymbolicLink,isOther,dev,ino";
+
+    private final PairSet unixKeys = new PairSet();
+    private final Set<Object> otherKeys = ConcurrentHashMap.newKeySet();
+    private final boolean unix;
+    private final long blockSize;
+    private String unixAttributes = UNIX_ATTRIBUTES + ",blocks";
+
+    /**
+     * @param root Directory the scan starts at, it counts as visited
+     * @throws IOException if the attributes of the directory cannot be read
+     */
+    LinkTracker(Path root) throws IOException {
+        this.unix = root.getFileSystem().supportedFileAttributeViews().contains("unix");
+        this.blockSize = blockSize(root);
+        if (unix) {
+            Map<String, Object> attributes;
+            try {
+                attributes = Files.readAttributes(root, unixAttributes);
+            } catch (IllegalArgumentException e) {
+                // the number of blocks is not reported by every runtime
+                unixAttributes = UNIX_ATTRIBUTES;
+                attributes = Files.readAttributes(root, unixAttributes);
+            }
+            visit(new UnixAttributes(attributes));
+        } else {
+            visit(Files.readAttributes(root, BasicFileAttributes.class));
+        }
+    }
+
+    /**
+     * Visits the direct children of a directory, which may be reached through a symbolic link. Symbolic
+     * links among the children are resolved, and entries which were visited before are skipped.
+     *
+     * @param directory Directory to list
+     * @param visitor   Visitor receiving the attributes of the entries, of the target for symbolic links
+     * @throws IOException if the directory cannot be opened
+     */
+    void listDirectory(Path directory, DirectorySizeScanner.EntryVisitor visitor) throws IOException {
+        if (!unix) {
+            DirectorySizeScanner.listDirectory(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                    filter(visitor));
+            return;
+        }
+        long start = System.nanoTime();
+        long entries = 0;
+        // opening the stream follows a link to the directory itself
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                entries++;
+                UnixAttributes attrs = readUnixAttributes(file, unixAttributes);
+                if (attrs != null && visit(attrs)) {
+                    visitor.visit(file, attrs);
+                }
+            }
+        }
+        Metrics.LISTING.record(start, entries, 0);
+    }
+
+    /**
+     * Resolves symbolic links among entries listed with their own attributes and skips entries visited
+     * before
+     */
+    private DirectorySizeScanner.EntryVisitor filter(DirectorySizeScanner.EntryVisitor visitor) {
+        return (file, attrs) -> {
+            BasicFileAttributes resolved = attrs;
+            if (attrs.isSymbolicLink()) {
+                try {
+                    resolved = Files.readAttributes(file, BasicFileAttributes.class);
+                    Metrics.STAT.increment();
+                } catch (IOException e) {
+                    // broken links count as small files
+                }
+                if (resolved.fileKey() == null) {
+                    resolved = attrs;
+                }
+            }
+            if (visit(resolved)) {
+                visitor.visit(file, resolved);
+            }
+        };
+    }
+
+    /**
+     * @param attrs Attributes of a file passed to a visitor of this tracker
+     * @return Space the file takes up on disk, from its blocks where known, otherwise the size rounded up to
+     * whole blocks
+     */
+    long allocated(BasicFileAttributes attrs) {
+        if (attrs instanceof UnixAttributes && ((UnixAttributes) attrs).blocks >= 0) {
+            return ((UnixAttributes) attrs).blocks * UNIX_BLOCK_SIZE;
+        }
+        return (attrs.size() + blockSize - 1) / blockSize * blockSize;
+    }
+
+    /**
+     * @return true if the entry is visited for the first time or has no file key
+     */
+    private boolean visit(BasicFileAttributes attrs) {
+        if (attrs instanceof UnixAttributes) {
+            UnixAttributes unixAttrs = (UnixAttributes) attrs;
+            return unixKeys.add(unixAttrs.device, unixAttrs.inode);
+        }
+        Object key = attrs.fileKey();
+        return key == null || otherKeys.add(key);
+    }
+
+    /**
+     * Reads the attributes of an entry with a single call, of the target for symbolic links
+     *
+     * @return Attributes, of the link itself if it is broken, null if the entry cannot be read
+     */
+    private static UnixAttributes readUnixAttributes(Path file, String attributes) {
+        Metrics.STAT.increment();
+        try {
+            return new UnixAttributes(Files.readAttributes(file, attributes));
+        } catch (IOException e) {
+            // broken links count as small files
+        }
+        try {
+            Metrics.STAT.increment();
+            return new UnixAttributes(Files.readAttributes(file, attributes, LinkOption.NOFOLLOW_LINKS));
+        } catch (IOException e) {
+            // unreadable entries are skipped like in a plain listing
+            return null;
+        }
+    }
+
+    /**
+     * Reads the block size of the file store, which is only available on Java 10+
+     */
+    private static long blockSize(Path root) {
+        try {
+            FileStore store = Files.getFileStore(root);
+            return (Long) FileStore.class.getMethod("getBlockSize").invoke(store);
+        } catch (IOException | NoSuchMethodException | IllegalAccessException e) {
+            return DEFAULT_BLOCK_SIZE;
+        } catch (InvocationTargetException e) {
+            // file systems without blocks, e.g. archives
+            return 1;
+        }
+    }
+
+    /**
+     * Basic attributes read through the unix view, together with the numbers identifying the file and its
+     * allocated blocks, -1 if unknown
+     */
+    private static class UnixAttributes implements BasicFileAttributes {
+        private final long size;
+        private final FileTime lastModified;
+        private final boolean directory;
+        private final boolean regularFile;
+        private final boolean symbolicLink;
+        private final boolean other;
+        private final long device;
+        private final long inode;
+        private final long blocks;
+
+        UnixAttributes(Map<String, Object> attributes) {
+            size = (Long) attributes.get("size");
+            lastModified = (FileTime) attributes.get("lastModifiedTime");
+            directory = (Boolean) attributes.get("isDirectory");
+            regularFile = (Boolean) attributes.get("isRegularFile");
+            symbolicLink = (Boolean) attributes.get("isSymbolicLink");
+            other = (Boolean) attributes.get("isOther");
+            device = (Long) attributes.get("dev");
+            inode = (Long) attributes.get("ino");
+            Object count = attributes.get("blocks");
+            blocks = count != null ? (Long) count : -1;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return lastModified;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModified;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return regularFile;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return symbolicLink;
+        }
+
+        @Override
+        public boolean isOther() {
+            return other;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+
+    /**
+     * Set of long pairs using open addressing, split into segments which are locked separately so the scanner
+     * threads rarely wait for each other. Every pair takes 16 bytes plus free slots.
+     */
+    private static class PairSet {
+        private static final int SEGMENTS = 64;
+
+        private final Segment[] segments = new Segment[SEGMENTS];
+
+        PairSet() {
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment();
+            }
+        }
+
+        /**
+         * @return true if the pair was not in the set
+         */
+        boolean add(long first, long second) {
+            long hash = hash(first, second);
+            // the low bits select the segment, the slot within it is taken from the higher bits
+            Segment segment = segments[(int) hash & (SEGMENTS - 1)];
+            synchronized (segment) {
+                return segment.add(first, second);
+            }
+        }
+
+        private static long hash(long first, long second) {
+            long hash = first * 0x9E3779B97F4A7C15L + second;
+            hash ^= hash >>> 29;
+            hash *= 0xBF58476D1CE4E5B9L;
+            return hash ^ (hash >>> 32);
+        }
+
+        private static int slot(long first, long second, int mask) {
+            return (int) (hash(first, second) >>> 6) & mask;
+        }
+
+        private static class Segment {
+            private long[] firsts = new long[64];
+            private long[] seconds = new long[64];
+            private boolean[] used = new boolean[64];
+            private int size;
+
+            boolean add(long first, long second) {
+                int mask = firsts.length - 1;
+                int slot = slot(first, second, mask);
+                while (used[slot]) {
+                    if (firsts[slot] == first && seconds[slot] == second) {
+                        return false;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                firsts[slot] = first;
+                seconds[slot] = second;
+                used[slot] = true;
+                if (++size * 4 > firsts.length * 3) {
+                    grow();
+                }
+                return true;
+            }
+
+            private void grow() {
+                long[] oldFirsts = firsts;
+                long[] oldSeconds = seconds;
+                boolean[] oldUsed = used;
+                firsts = new long[oldFirsts.length * 2];
+                seconds = new long[oldFirsts.length * 2];
+                used = new boolean[oldFirsts.length * 2];
+                int mask = firsts.length - 1;
+                for (int i = 0; i < oldFirsts.length; i++) {
+                    if (oldUsed[i]) {
+                        int slot = slot(oldFirsts[i], oldSeconds[i], mask);
+                        while (used[slot]) {
+                            slot = (slot + 1) & mask;
+                        }
+                        firsts[slot] = oldFirsts[i];
+                        seconds[slot] = oldSeconds[i];
+                        used[slot] = true;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -5,15 +5,30 @@ import com.intellij.uiDesigner.core.GridLayoutManager;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.DefaultTableCellRenderer;
 import java.awt.*;
 import java.awt.event.*;
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.PatternSyntaxException;
 
 public class MainWindow {
     private static ResourceBundle strings;
+    private static final SizeIndex sizeIndex = new SizeIndex(SizeIndex.defaultLocation());
+    private static final DirectorySizeScanner scanner = new DirectorySizeScanner(
+            Runtime.getRuntime().availableProcessors(), sizeIndex);
+    private static final DuplicateFinder duplicateFinder = new DuplicateFinder(
+            Runtime.getRuntime().availableProcessors());
+    private static final BatchRenamer renamer = new BatchRenamer(BatchRenamer.defaultJournalDirectory(),
+            Runtime.getRuntime().availableProcessors() * 2);
     private JTextField pathTextField;
     private JButton applyButton;
     private JTextField renameTextField;
@@ -22,31 +37,63 @@ public class MainWindow {
     private JList<String> fileList;
     private JList<String> newFileList;
     private JTextField origTextField;
+    private JLabel filesLabel;
+    private JLabel previewLabel;
+    private JLabel searchLabel;
+    private JLabel replacementLabel;
     private JScrollPane oldScrollPane;
     private JScrollPane newScrollPane;
     private JButton statisticsButton;
+    private JButton duplicatesButton;
+    private JCheckBox regexCheckBox;
+    private JComboBox<String> caseComboBox;
+    private JComboBox<String> scopeComboBox;
+    private JProgressBar progressBar;
+    private JButton cancelButton;
     private JFileChooser fileChooser;
-    private DefaultListModel<String> model;
-    private DefaultListModel<String> model2;
+    private FileListModel model;
+    private PreviewListModel model2;
+    private RenamePreviewEngine previewEngine;
+    private RenamePipeline pipeline = RenamePipeline.literal("", "");
+    private DirectoryWatcher watcher;
+    private SwingWorker<?, ?> currentJob;
+    private Path folder;
+    private Path pendingReload;
 
     private MainWindow() {
-        fileChooser = new JFileChooser();
-        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-        model = new DefaultListModel<>();
+        // texts come from the bundle chosen in main, which falls back to English
+        openButton.setText(strings.getString("choose"));
+        duplicatesButton.setText(strings.getString("duplicates"));
+        filesLabel.setText(strings.getString("files"));
+        previewLabel.setText(strings.getString("preview"));
+        searchLabel.setText(strings.getString("search_text"));
+        replacementLabel.setText(strings.getString("replacement"));
+        applyButton.setText(strings.getString("apply"));
+        statisticsButton.setText(strings.getString("statistics"));
+        regexCheckBox.setText(strings.getString("regex"));
+        cancelButton.setText(strings.getString("cancel"));
+        model = new FileListModel();
         fileList.setModel(model);
-        model2 = new DefaultListModel<>();
+        model2 = new PreviewListModel(model);
         newFileList.setModel(model2);
+        previewEngine = new RenamePreviewEngine(model, model2);
+        for (String key : new String[]{"case_none", "case_upper", "case_lower", "case_title"}) {
+            caseComboBox.addItem(strings.getString(key));
+        }
+        for (String key : new String[]{"scope_name", "scope_base_name", "scope_extension"}) {
+            scopeComboBox.addItem(strings.getString(key));
+        }
 
         applyButton.addActionListener(actionEvent -> {
-            if (pathTextField.getText().trim().length() <= 0) {
+            if (folder == null) {
                 JOptionPane.showMessageDialog(null, strings.getString("no_directory_dialog"));
                 return;
             }
-            if (model.size() <= 0) {
+            if (model.getSize() <= 0) {
                 JOptionPane.showMessageDialog(null, strings.getString("empty_list_dialog"));
                 return;
             }
-            Map<String, String> renames = updateRenaming();
+            Map<String, String> renames = collectRenames();
             if (renames.size() <= 0) {
                 JOptionPane.showMessageDialog(null, strings.getString("no_files_dialog"));
                 return;
@@ -55,36 +102,21 @@ public class MainWindow {
             for (Map.Entry<String, String> entry : renames.entrySet()) {
                 fileString.append(entry.getKey()).append(" \u2192 ").append(entry.getValue()).append("\r\n");
             }
-            int res = JOptionPane.showConfirmDialog(null, strings.containsKey("confirm_dialog") + "\r\n" + fileString);
-            String path = pathTextField.getText();
+            int res = JOptionPane.showConfirmDialog(null, strings.getString("confirm_dialog") + "\r\n" + fileString);
             if (res == JOptionPane.OK_OPTION) {
-                List<String> errorList = new ArrayList<>();
-                for (Map.Entry<String, String> entry : renames.entrySet()) {
-                    String src = path + "\\" + entry.getKey();
-                    String dst = path + "\\" + entry.getValue();
-                    File file = new File(src);
-                    boolean success = file.renameTo(new File(dst));
-                    if (success) {
-                        System.out.println("Renamed " + src + " to " + dst);
-                    } else {
-                        System.out.println("Unable to rename " + src + " to " + dst);
-                        errorList.add(src + " \u2192 " + dst);
-                    }
-                }
-                if (!errorList.isEmpty()) {
-                    JOptionPane.showConfirmDialog(null, strings.containsKey("rename_error_dialog") + ":\r\n" + errorList.toString());
-                }
-
-                //reload content
-                loadFiles(new File(pathTextField.getText()));
+                startJob(new RenameWorker(folder, renames), true);
             }
         });
         openButton.addActionListener(actionEvent -> {
+            JFileChooser fileChooser = getFileChooser();
             int returnVal = fileChooser.showOpenDialog(null);
             if (returnVal == JFileChooser.APPROVE_OPTION) {
-                File folder = fileChooser.getSelectedFile();
-                loadFiles(folder);
-                updateRenaming();
+                String selected = fileChooser.getSelectedFile().getPath();
+                try {
+                    loadFiles(PathResolver.resolve(selected));
+                } catch (IOException e) {
+                    System.out.println("Unable to open " + selected + ": " + e.toString());
+                }
             }
         });
         fileList.addListSelectionListener(listSelectionEvent -> {
@@ -107,98 +139,196 @@ public class MainWindow {
                 updateRenaming();
             }
         });
+        regexCheckBox.addActionListener(actionEvent -> updateRenaming());
+        caseComboBox.addActionListener(actionEvent -> updateRenaming());
+        scopeComboBox.addActionListener(actionEvent -> updateRenaming());
         oldScrollPane.getVerticalScrollBar().addAdjustmentListener(adjustmentEvent -> newScrollPane.getVerticalScrollBar().setValue(oldScrollPane.getVerticalScrollBar().getValue()));
         newScrollPane.getVerticalScrollBar().addAdjustmentListener(adjustmentEvent -> oldScrollPane.getVerticalScrollBar().setValue(newScrollPane.getVerticalScrollBar().getValue()));
         statisticsButton.addActionListener(actionEvent -> {
-            if (pathTextField.getText().trim().length() > 0) {
-                String path;
-                path = pathTextField.getText().trim();
-                List<Directory> dirList = getDirectorySizes(path);
-                StringBuilder tmp = new StringBuilder();
-                for (Directory dir : dirList) {
-                    tmp.append(dir.getName()).append(": \t");
-                    double value = dir.getSize().doubleValue();
-                    String fileSize = value + " B";
-                    if (value >= 1000) {
-                        // Filesize > 1 KB
-                        value = value / 1000;
-                        value = Math.round(value * 100.0) / 100.0;
-                        fileSize = value + " KB";
-
-                        if (value >= 1000) {
-                            // Filesize > 1 MB
-                            value = value / 1000;
-                            value = Math.round(value * 100.0) / 100.0;
-                            fileSize = value + " MB";
-
-                            if (value >= 1000) {
-                                // Filesize > 1 GB
-                                value = value / 1000;
-                                value = Math.round(value * 100.0) / 100.0;
-                                fileSize = value + " GB";
-                            }
-                        }
+            if (folder != null) {
+                // not the current job: opening or reloading a folder must not close the dialog
+                StatisticsWorker worker = new StatisticsWorker(folder);
+                statisticsButton.setEnabled(false);
+                worker.showDialog();
+                BackgroundExecutor.execute(worker);
+            }
+        });
+        duplicatesButton.addActionListener(actionEvent -> {
+            if (folder != null) {
+                startJob(new DuplicatesWorker(folder), true);
+            }
+        });
+        cancelButton.addActionListener(actionEvent -> cancelJob());
+    }
 
+    /**
+     * Creates the file chooser on first use, since it reads the file system and loads icons
+     *
+     * @return File chooser for folders and archives
+     */
+    private JFileChooser getFileChooser() {
+        if (fileChooser == null) {
+            fileChooser = new JFileChooser();
+            // archives are opened like folders
+            fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+            fileChooser.setFileFilter(new FileNameExtensionFilter(strings.getString("folders_and_archives"),
+                    "zip", "jar"));
+            fileChooser.setAcceptAllFileFilterUsed(false);
+        }
+        return fileChooser;
+    }
+
+    /**
+     * Offers to complete or undo renames which were interrupted, e.g. by a crash. The journals are read and
+     * replayed in the background, only the questions are asked on the event dispatch thread.
+     */
+    private void resumePendingRenames() {
+        BackgroundExecutor.execute(new SwingWorker<Map<Path, Path>, Void>() {
+            @Override
+            protected Map<Path, Path> doInBackground() throws IOException {
+                Map<Path, Path> directories = new LinkedHashMap<>();
+                for (Path journal : renamer.pendingJournals()) {
+                    try {
+                        directories.put(journal, BatchRenamer.directoryOf(journal));
+                    } catch (IOException e) {
+                        System.out.println("Unable to read rename journal " + journal + ": " + e.toString());
                     }
-                    tmp.append(fileSize).append("\n");
                 }
-                JOptionPane.showMessageDialog(null, tmp.toString());
+                return directories;
             }
 
+            @Override
+            protected void done() {
+                Map<Path, Boolean> decisions = new LinkedHashMap<>();
+                try {
+                    for (Map.Entry<Path, Path> pending : get().entrySet()) {
+                        int res = JOptionPane.showConfirmDialog(null, strings.getString("pending_rename_dialog") + "\r\n" + pending.getValue());
+                        if (res == JOptionPane.YES_OPTION || res == JOptionPane.NO_OPTION) {
+                            decisions.put(pending.getKey(), res == JOptionPane.YES_OPTION);
+                        }
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    System.out.println("Unable to read rename journals: " + e.toString());
+                }
+                if (!decisions.isEmpty()) {
+                    startJob(new RecoveryWorker(decisions), true);
+                }
+            }
         });
     }
 
     /**
-     * Determines the size of each directory in the given path
+     * Runs a job in the background while showing its progress
      *
-     * @param path Path to directory which should be analyzed
-     * @return List of files and directories with corresponding size, ordered by size
+     * @param job         Job to run
+     * @param determinate true if the job reports its progress
      */
-    private static List<Directory> getDirectorySizes(String path) {
-        File directory = new File(path);
-        List<Directory> fList = new ArrayList<>();
-
-        for (File file : Objects.requireNonNull(directory.listFiles())) {
-            if (file.isFile()) {
-                fList.add(new Directory(file.getName(), file.length()));
-            } else if (file.isDirectory()) {
-                Long directorySize = getFolderSize(file);
-                fList.add(new Directory(file.getName(), directorySize));
-            } else {
-                System.out.println(strings.containsKey("UnsupportedFileType") + ": " + file.getName());
+    private void startJob(SwingWorker<?, ?> job, boolean determinate) {
+        cancelJob();
+        currentJob = job;
+        progressBar.setIndeterminate(!determinate);
+        progressBar.setStringPainted(determinate);
+        progressBar.setValue(0);
+        progressBar.setVisible(true);
+        cancelButton.setEnabled(true);
+        applyButton.setEnabled(false);
+        duplicatesButton.setEnabled(false);
+        // another folder must not be opened while files are moved
+        openButton.setEnabled(!(job instanceof RenameWorker));
+        job.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                progressBar.setValue((Integer) event.getNewValue());
             }
+        });
+        BackgroundExecutor.execute(job);
+    }
+
+    /**
+     * Hides the progress of a job which has finished
+     *
+     * @param job Finished job
+     */
+    private void finishJob(SwingWorker<?, ?> job) {
+        if (currentJob != job) {
+            return;
         }
+        currentJob = null;
+        progressBar.setVisible(false);
+        cancelButton.setEnabled(false);
+        applyButton.setEnabled(true);
+        duplicatesButton.setEnabled(true);
+        openButton.setEnabled(true);
+    }
 
-        class CustomComparator implements Comparator<Directory> {
-            @Override
-            public int compare(Directory o1, Directory o2) {
-                return o2.getSize().compareTo(o1.getSize());
-            }
+    /**
+     * Stops the running job. A rename is stopped through its rollback, so no moves are left behind.
+     */
+    private void cancelJob() {
+        if (currentJob instanceof RenameWorker) {
+            ((RenameWorker) currentJob).requestCancel();
+        } else if (currentJob != null) {
+            currentJob.cancel(false);
         }
+    }
+
+    /**
+     * Formats a file size for display
+     *
+     * @param size Size in bytes
+     * @return Size with unit
+     */
+    private static String formatSize(long size) {
+        double value = size;
+        String fileSize = value + " B";
+        if (value >= 1000) {
+            // Filesize > 1 KB
+            value = value / 1000;
+            value = Math.round(value * 100.0) / 100.0;
+            fileSize = value + " KB";
 
-        Collections.sort(fList, new CustomComparator());
+            if (value >= 1000) {
+                // Filesize > 1 MB
+                value = value / 1000;
+                value = Math.round(value * 100.0) / 100.0;
+                fileSize = value + " MB";
 
-        return fList;
+                if (value >= 1000) {
+                    // Filesize > 1 GB
+                    value = value / 1000;
+                    value = Math.round(value * 100.0) / 100.0;
+                    fileSize = value + " GB";
+                }
+            }
+
+        }
+        return fileSize;
     }
 
     /**
-     * Allocates all files in a directory and sum up their size
+     * Scans the whole tree of the given path
      *
-     * @param directory Directory to be measured
-     * @return Size of the directory
+     * @param tree     Store receiving the tree
+     * @param progress Progress of the scan, may be null
+     * @param analysis Receives every file and directory of the tree except its root, may be null
      */
-    private static long getFolderSize(File directory) {
-        long length = 0;
-        for (File file : Objects.requireNonNull(directory.listFiles())) {
-            if (file.isFile())
-                length += file.length();
-            else
-                length += getFolderSize(file);
-        }
-        return length;
+    private static void scanTree(TreeStore tree, DirectorySizeScanner.Progress progress, TreeAnalysis analysis) {
+        try {
+            scanner.scanTree(tree.getRoot(), progress, analysis, tree);
+        } catch (IOException e) {
+            System.out.println("Unable to analyze " + PathResolver.toString(tree.getRoot()) + ": " + e.toString());
+            return;
+        }
+        try {
+            sizeIndex.save();
+        } catch (IOException e) {
+            System.out.println("Unable to save size index: " + e.toString());
+        }
     }
 
     public static void main(String[] args) {
+        long start = System.nanoTime();
+        Metrics.start();
+
         // Load Strings
         String language = "";
         try {
@@ -210,10 +340,17 @@ public class MainWindow {
             strings = ResourceBundle.getBundle("strings_en");
         }
 
-        // Create Frame
-        JFrame frame = new JFrame(strings.getString("program_title"));
+        SwingUtilities.invokeLater(() -> createWindow(start));
+    }
 
-        // Set os layout
+    /**
+     * Creates and shows the window on the event dispatch thread. Work which is not needed for the first
+     * frame is done once the window is open.
+     *
+     * @param start Time main was entered, from {@link System#nanoTime()}
+     */
+    private static void createWindow(long start) {
+        // Set os layout, before the first component so the default look and feel is never loaded
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) {
@@ -221,8 +358,23 @@ public class MainWindow {
         }
 
         // Create window
-        frame.setContentPane(new MainWindow().mainPanel);
+        JFrame frame = new JFrame(strings.getString("program_title"));
+        MainWindow window = new MainWindow();
+        frame.setContentPane(window.mainPanel);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                // queued behind the first paint of the window
+                SwingUtilities.invokeLater(() -> {
+                    Metrics.FIRST_FRAME.record(start);
+                    if (Boolean.getBoolean("filemanager.exitAfterStartup")) {
+                        System.exit(0);
+                    }
+                    window.resumePendingRenames();
+                });
+            }
+        });
         frame.pack();
         frame.setSize(500, 600);
         frame.setLocationRelativeTo(null);
@@ -234,57 +386,537 @@ public class MainWindow {
      *
      * @param folder Folder to analyse
      */
-    private void loadFiles(File folder) {
-        pathTextField.setText(folder.getAbsolutePath());
+    private void loadFiles(Path folder) {
+        if (currentJob instanceof RenameWorker) {
+            // e.g. a watcher overflow, the batch keeps running and the folder is loaded once it has finished
+            pendingReload = folder;
+            return;
+        }
+        // events of the previous folder must not reach the new listing
+        closeWatcher();
+        this.folder = folder;
+        pathTextField.setText(PathResolver.toString(folder));
 
         model.clear();
 
-        List<String> directories = new ArrayList<>();
-        List<String> files = new ArrayList<>();
+        startJob(new ListingWorker(folder), false);
+    }
 
-        for (final File file : Objects.requireNonNull(folder.listFiles())) {
-            if (file.isDirectory()) {
-                directories.add(file.getName() + "/");
-            } else {
-                files.add(file.getName());
+    /**
+     * Keeps the displayed content of a folder up to date
+     *
+     * @param folder Folder to watch
+     */
+    private void watch(Path folder) {
+        closeWatcher();
+        if (!PathResolver.isDefault(folder)) {
+            // archives only change through this program
+            return;
+        }
+        try {
+            watcher = new DirectoryWatcher(folder, sizeIndex,
+                    changes -> SwingUtilities.invokeLater(() -> applyChanges(folder, changes)));
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("Unable to watch " + folder + ": " + e.toString());
+        }
+    }
+
+    private void closeWatcher() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                // already closed
             }
+            watcher = null;
         }
-        for (Object fileName : directories) {
-            model.addElement(fileName.toString());
+    }
+
+    /**
+     * Applies changes detected by the watcher to the displayed content
+     *
+     * @param folder  Folder the changes belong to
+     * @param changes Changed entries, or null if the folder has to be reloaded
+     */
+    private void applyChanges(Path folder, List<DirectoryWatcher.Change> changes) {
+        if (watcher == null || !watcher.getDirectory().equals(folder) || !folder.equals(this.folder)) {
+            // changes of a folder which is no longer displayed
+            return;
+        }
+        if (changes == null) {
+            loadFiles(folder);
+            return;
         }
-        for (Object fileName : files) {
-            model.addElement(fileName.toString());
+
+        Set<String> removed = new HashSet<>();
+        List<String> added = new ArrayList<>();
+        long[] times = new long[changes.size()];
+        for (DirectoryWatcher.Change change : changes) {
+            removed.add(change.getName());
+            removed.add(change.getName() + "/");
+            if (change.exists()) {
+                times[added.size()] = change.getLastModified();
+                added.add(change.isDirectory() ? change.getName() + "/" : change.getName());
+            }
+        }
+        model.remove(removed);
+        model.add(added, times);
+        updateCellSize();
+    }
+
+    /**
+     * Sizes the list cells after the longest entry, so the lists do not measure every entry
+     */
+    private void updateCellSize() {
+        int longest = model.getLongestIndex();
+        if (longest >= 0) {
+            fileList.setPrototypeCellValue(model.getElementAt(longest));
+            newFileList.setPrototypeCellValue(model2.getElementAt(longest));
         }
     }
 
     /**
      * Update the list of renamed files
      */
-    private Map<String, String> updateRenaming() {
-        model2.clear();
-        Map<String, String> renames = new HashMap<>();
-        String str = origTextField.getText();
-        String replacement = renameTextField.getText();
-        for (int i = 0; i < model.size(); i++) {
-            String name = model.getElementAt(i);
-            if (name.contains(str) && str.length() > 0) {
-                String tmp = name.replace(str, replacement);
-                // prevent empty name
-                if (tmp.length() <= 0) tmp = name;
-                // prevent '/' as name
-                if (tmp.equals("/")) tmp = name;
-                renames.put(name, tmp);
-                name = tmp;
-            } else if (str.length() == 0) {
-                String tmp = replacement + name;
-                if (replacement.length() > 0) {
-                    renames.put(name, tmp);
+    private void updateRenaming() {
+        try {
+            pipeline = RenamePipeline.compile(origTextField.getText(), renameTextField.getText(),
+                    regexCheckBox.isSelected(),
+                    RenamePipeline.CaseMode.values()[Math.max(0, caseComboBox.getSelectedIndex())],
+                    RenamePipeline.Scope.values()[Math.max(0, scopeComboBox.getSelectedIndex())]);
+            origTextField.setForeground(UIManager.getColor("TextField.foreground"));
+            renameTextField.setForeground(UIManager.getColor("TextField.foreground"));
+        } catch (PatternSyntaxException e) {
+            // keep the last valid preview while the expression is incomplete
+            origTextField.setForeground(Color.RED);
+            return;
+        } catch (IllegalArgumentException e) {
+            renameTextField.setForeground(Color.RED);
+            return;
+        }
+        previewEngine.update(pipeline);
+    }
+
+    /**
+     * Determines the files which are renamed by the current input
+     *
+     * @return Original names mapped to their new names
+     */
+    private Map<String, String> collectRenames() {
+        return previewEngine.collectRenames(pipeline);
+    }
+
+    /**
+     * Lists the content of a folder in the background and streams it into the file list in batches
+     */
+    private class ListingWorker extends SwingWorker<Void, Void> {
+
+        private static final int BATCH_SIZE = 4096;
+        private static final long BATCH_INTERVAL = 20;
+
+        private final Path folder;
+
+        ListingWorker(Path folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException {
+            long start = System.nanoTime();
+            long entries = 0;
+            List<String> batch = new ArrayList<>();
+            long[] times = new long[BATCH_SIZE];
+            long lastFlush = System.currentTimeMillis();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path file : stream) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    String name = file.getFileName().toString();
+                    // one read for the type and the modification time used by date tokens
+                    boolean directory = false;
+                    long lastModified = 0;
+                    try {
+                        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                        directory = attrs.isDirectory();
+                        lastModified = attrs.lastModifiedTime().toMillis();
+                    } catch (IOException e) {
+                        // shown as a file like before, e.g. a broken link
+                    }
+                    times[batch.size()] = lastModified;
+                    batch.add(directory ? name + "/" : name);
+                    entries++;
+                    long now = System.currentTimeMillis();
+                    if (batch.size() >= BATCH_SIZE || now - lastFlush >= BATCH_INTERVAL) {
+                        flush(batch, times);
+                        batch = new ArrayList<>();
+                        times = new long[BATCH_SIZE];
+                        lastFlush = now;
+                    }
                 }
-                name = tmp;
             }
-            model2.addElement(name);
+            flush(batch, times);
+            Metrics.STAT.add(entries);
+            Metrics.LISTING.record(start, entries, 0);
+            return null;
+        }
+
+        /**
+         * Hands a batch to the event dispatch thread. Unlike publish, invokeLater keeps the batches
+         * ordered before done().
+         */
+        private void flush(List<String> batch, long[] times) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (!isCancelled()) {
+                    model.add(batch, times);
+                    updateCellSize();
+                }
+            });
+        }
+
+        @Override
+        protected void done() {
+            finishJob(this);
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("Unable to list " + folder + ": " + e.toString());
+            }
+            watch(folder);
+            updateRenaming();
         }
-        return renames;
+    }
+
+    /**
+     * Renames files in the background as one transaction
+     */
+    private class RenameWorker extends SwingWorker<BatchRenamer.Result, Void> {
+
+        private final Path path;
+        private final Map<String, String> renames;
+        private volatile boolean cancelRequested;
+
+        RenameWorker(Path path, Map<String, String> renames) {
+            this.path = path;
+            this.renames = renames;
+        }
+
+        /**
+         * Stops the batch and rolls it back. Unlike cancel(), done() is only called after the rollback.
+         */
+        void requestCancel() {
+            cancelRequested = true;
+        }
+
+        @Override
+        protected BatchRenamer.Result doInBackground() throws IOException, BatchRenamer.RenameException {
+            BatchRenamer.Plan plan = renamer.plan(path, renames);
+            return renamer.execute(plan, new BatchRenamer.Progress() {
+                @Override
+                public void moved(BatchRenamer.Step step, int done, int total) {
+                    setProgress(done * 100 / total);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return cancelRequested;
+                }
+            });
+        }
+
+        @Override
+        protected void done() {
+            finishJob(this);
+            if (!isCancelled()) {
+                showResult();
+            }
+
+            //reload content, unless the watcher picks up the changes
+            Path reload = pendingReload;
+            pendingReload = null;
+            if (reload != null) {
+                loadFiles(reload);
+            } else if (watcher == null) {
+                loadFiles(path);
+            }
+        }
+
+        private void showResult() {
+            try {
+                BatchRenamer.Result result = get();
+                if (!result.getErrors().isEmpty()) {
+                    JOptionPane.showMessageDialog(null, strings.getString("rename_error_dialog") + ":\r\n" + String.join("\r\n", result.getErrors()));
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof BatchRenamer.RenameException) {
+                    List<String> problems = ((BatchRenamer.RenameException) e.getCause()).getProblems();
+                    JOptionPane.showMessageDialog(null, strings.getString("rename_collision_dialog") + ":\r\n" + String.join("\r\n", problems));
+                    return;
+                }
+                JOptionPane.showMessageDialog(null, strings.getString("rename_error_dialog") + ":\r\n" + e.getCause());
+            } catch (InterruptedException e) {
+                // nothing renamed
+            }
+        }
+    }
+
+    /**
+     * Completes or undoes interrupted renames in the background
+     */
+    private class RecoveryWorker extends SwingWorker<List<String>, Void> {
+
+        private final Map<Path, Boolean> decisions;
+
+        /**
+         * @param decisions Journals mapped to true to complete their batch or false to undo it
+         */
+        RecoveryWorker(Map<Path, Boolean> decisions) {
+            this.decisions = decisions;
+        }
+
+        @Override
+        protected List<String> doInBackground() throws IOException {
+            List<String> errors = new ArrayList<>();
+            int done = 0;
+            for (Map.Entry<Path, Boolean> decision : decisions.entrySet()) {
+                if (isCancelled()) {
+                    break;
+                }
+                BatchRenamer.Result result = decision.getValue()
+                        ? renamer.resume(decision.getKey()) : renamer.rollback(decision.getKey());
+                errors.addAll(result.getErrors());
+                setProgress(++done * 100 / decisions.size());
+            }
+            return errors;
+        }
+
+        @Override
+        protected void done() {
+            finishJob(this);
+            if (isCancelled()) {
+                // the journals which were not replayed yet are offered again on the next start
+                return;
+            }
+            try {
+                List<String> errors = get();
+                if (!errors.isEmpty()) {
+                    JOptionPane.showMessageDialog(null, strings.getString("rename_error_dialog") + ":\r\n" + String.join("\r\n", errors));
+                }
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(null, strings.getString("rename_error_dialog") + ":\r\n" + e.getCause());
+            } catch (InterruptedException e) {
+                // nothing recovered
+            }
+        }
+    }
+
+    /**
+     * Determines the directory sizes in the background. The scan runs beside the other jobs and shows its
+     * progress in its own dialog.
+     */
+    private class StatisticsWorker extends SwingWorker<TreeStore, Directory> {
+
+        private static final int LARGEST_COUNT = 100;
+
+        private final Path path;
+        private final TreeAnalysis analysis = new TreeAnalysis(LARGEST_COUNT);
+        private final TreeStore tree;
+        private final JTabbedPane tabs = new JTabbedPane();
+        private final JProgressBar progress = new JProgressBar();
+        private TreeBrowser browser;
+        private JDialog dialog;
+
+        StatisticsWorker(Path path) {
+            this.path = path;
+            this.tree = new TreeStore(path);
+            progress.setStringPainted(true);
+            addPropertyChangeListener(event -> {
+                if ("progress".equals(event.getPropertyName())) {
+                    progress.setValue((Integer) event.getNewValue());
+                }
+            });
+        }
+
+        /**
+         * Shows the tree while it is scanned. Closing the dialog cancels the scan.
+         */
+        void showDialog() {
+            browser = new TreeBrowser(strings, tree);
+            tabs.addTab(strings.getString("statistics_tree"), browser);
+            tabs.setPreferredSize(new Dimension(700, 450));
+            dialog = new JDialog(SwingUtilities.getWindowAncestor(mainPanel), strings.getString("statistics"));
+            dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+            dialog.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    cancel(false);
+                }
+            });
+            JPanel content = new JPanel(new BorderLayout());
+            content.add(tabs, BorderLayout.CENTER);
+            content.add(progress, BorderLayout.SOUTH);
+            dialog.setContentPane(content);
+            dialog.pack();
+            dialog.setLocationRelativeTo(mainPanel);
+            dialog.setVisible(true);
+        }
+
+        @Override
+        protected TreeStore doInBackground() {
+            scanTree(tree, new DirectorySizeScanner.Progress() {
+                @Override
+                public void measured(Directory entry, int done, int total) {
+                    publish(entry);
+                    setProgress(done * 100 / total);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return StatisticsWorker.this.isCancelled();
+                }
+            }, analysis);
+            return tree;
+        }
+
+        @Override
+        protected void process(List<Directory> chunks) {
+            Directory last = chunks.get(chunks.size() - 1);
+            progress.setString(last.getName() + ": " + formatSize(last.getSize()));
+        }
+
+        @Override
+        protected void done() {
+            statisticsButton.setEnabled(true);
+            browser.scanFinished();
+            progress.setVisible(false);
+            if (isCancelled()) {
+                dialog.dispose();
+                return;
+            }
+            try {
+                get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("Unable to analyze " + path + ": " + e.toString());
+                dialog.dispose();
+                return;
+            }
+            addStatistics(tabs, tree.getRoot(), analysis);
+        }
+    }
+
+    /**
+     * Adds the results of a completed scan as sortable tables
+     *
+     * @param tabs     Tabs to add the tables to
+     * @param root     Scanned directory
+     * @param analysis Largest entries and histograms of the whole tree
+     */
+    private void addStatistics(JTabbedPane tabs, Path root, TreeAnalysis analysis) {
+        tabs.addTab(strings.getString("statistics_largest_files"),
+                createTable(StatisticsTableModel.ofEntries(strings, root, analysis.getLargestFiles())));
+        tabs.addTab(strings.getString("statistics_largest_directories"),
+                createTable(StatisticsTableModel.ofEntries(strings, root, analysis.getLargestDirectories())));
+        tabs.addTab(strings.getString("statistics_extensions"),
+                createTable(StatisticsTableModel.ofBuckets(strings, analysis.getExtensions(), bucket ->
+                        bucket.getName() == null ? strings.getString("other_extensions")
+                                : bucket.getName().isEmpty() ? strings.getString("no_extension")
+                                : "." + bucket.getName())));
+        tabs.addTab(strings.getString("statistics_age"),
+                createTable(StatisticsTableModel.ofBuckets(strings, analysis.getAges(), bucket ->
+                        strings.getString("age_" + bucket.getName()))));
+    }
+
+    /**
+     * Searches for files with identical content
+     */
+    private class DuplicatesWorker extends SwingWorker<List<DuplicateFinder.Group>, String> {
+
+        private final Path path;
+
+        DuplicatesWorker(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        protected List<DuplicateFinder.Group> doInBackground() {
+            return duplicateFinder.find(path, 1, new DuplicateFinder.Progress() {
+                private int lastStage;
+
+                @Override
+                public void progress(int stage, long done, long total) {
+                    if (stage != lastStage) {
+                        lastStage = stage;
+                        publish(strings.getString("duplicates_stage_" + stage));
+                    }
+                    if (total > 0) {
+                        setProgress((int) (done * 100 / total));
+                    }
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return DuplicatesWorker.this.isCancelled();
+                }
+            });
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+            progressBar.setString(chunks.get(chunks.size() - 1));
+        }
+
+        @Override
+        protected void done() {
+            finishJob(this);
+            progressBar.setString(null);
+            if (isCancelled()) {
+                return;
+            }
+            List<DuplicateFinder.Group> groups;
+            try {
+                groups = get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("Unable to search " + path + ": " + e.toString());
+                return;
+            }
+            if (groups.isEmpty()) {
+                JOptionPane.showMessageDialog(null, strings.getString("no_duplicates_dialog"));
+                return;
+            }
+            JScrollPane table = createTable(StatisticsTableModel.ofDuplicates(strings, path, groups));
+            table.setPreferredSize(new Dimension(700, 450));
+            JOptionPane.showMessageDialog(null, table, strings.getString("duplicates"), JOptionPane.PLAIN_MESSAGE);
+        }
+    }
+
+    private static JScrollPane createTable(StatisticsTableModel model) {
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        configureTable(table);
+        return new JScrollPane(table);
+    }
+
+    /**
+     * Sets the column widths and the size format of a statistics table, again after its model was replaced
+     *
+     * @param table Table showing a {@link StatisticsTableModel}
+     */
+    static void configureTable(JTable table) {
+        table.getColumnModel().getColumn(StatisticsTableModel.NAME_COLUMN).setPreferredWidth(400);
+        DefaultTableCellRenderer sizeRenderer = new DefaultTableCellRenderer() {
+            @Override
+            protected void setValue(Object value) {
+                setText(formatSize((Long) value));
+            }
+        };
+        sizeRenderer.setHorizontalAlignment(SwingConstants.RIGHT);
+        table.getColumnModel().getColumn(StatisticsTableModel.SIZE_COLUMN).setCellRenderer(sizeRenderer);
     }
 
     {
@@ -307,23 +939,22 @@ public class MainWindow {
         mainPanel.setAlignmentX(0.5f);
         mainPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createRaisedBevelBorder(), null, TitledBorder.DEFAULT_JUSTIFICATION, TitledBorder.DEFAULT_POSITION, this.$$$getFont$$$(null, -1, -1, mainPanel.getFont())));
         final JPanel panel1 = new JPanel();
-        panel1.setLayout(new GridLayoutManager(1, 2, new Insets(5, 5, 0, 5), -1, -1));
+        panel1.setLayout(new GridLayoutManager(1, 3, new Insets(5, 5, 0, 5), -1, -1));
         mainPanel.add(panel1, BorderLayout.NORTH);
         pathTextField = new JTextField();
         pathTextField.setEditable(false);
         panel1.add(pathTextField, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(150, -1), null, 0, false));
         openButton = new JButton();
-        this.$$$loadButtonText$$$(openButton, ResourceBundle.getBundle("strings").getString("choose"));
         panel1.add(openButton, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        duplicatesButton = new JButton();
+        panel1.add(duplicatesButton, new GridConstraints(0, 2, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         final JPanel panel2 = new JPanel();
         panel2.setLayout(new GridLayoutManager(3, 2, new Insets(0, 5, 0, 5), -1, -1));
         mainPanel.add(panel2, BorderLayout.CENTER);
-        final JLabel label1 = new JLabel();
-        this.$$$loadLabelText$$$(label1, ResourceBundle.getBundle("strings").getString("files"));
-        panel2.add(label1, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
-        final JLabel label2 = new JLabel();
-        this.$$$loadLabelText$$$(label2, ResourceBundle.getBundle("strings").getString("preview"));
-        panel2.add(label2, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        filesLabel = new JLabel();
+        panel2.add(filesLabel, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        previewLabel = new JLabel();
+        panel2.add(previewLabel, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         oldScrollPane = new JScrollPane();
         oldScrollPane.setName("");
         panel2.add(oldScrollPane, new GridConstraints(1, 0, 2, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, null, null, null, 0, false));
@@ -335,26 +966,35 @@ public class MainWindow {
         newFileList = new JList();
         newScrollPane.setViewportView(newFileList);
         final JPanel panel3 = new JPanel();
-        panel3.setLayout(new GridLayoutManager(3, 3, new Insets(0, 5, 5, 5), -1, -1));
+        panel3.setLayout(new GridLayoutManager(4, 3, new Insets(0, 5, 5, 5), -1, -1));
         mainPanel.add(panel3, BorderLayout.SOUTH);
         renameTextField = new JTextField();
         panel3.add(renameTextField, new GridConstraints(1, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(150, -1), null, 0, false));
         applyButton = new JButton();
-        this.$$$loadButtonText$$$(applyButton, ResourceBundle.getBundle("strings").getString("apply"));
         panel3.add(applyButton, new GridConstraints(1, 2, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         origTextField = new JTextField();
         panel3.add(origTextField, new GridConstraints(1, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(150, -1), null, 0, false));
-        final JLabel label3 = new JLabel();
-        this.$$$loadLabelText$$$(label3, ResourceBundle.getBundle("strings").getString("search_text"));
-        panel3.add(label3, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
-        final JLabel label4 = new JLabel();
-        this.$$$loadLabelText$$$(label4, ResourceBundle.getBundle("strings").getString("replacement"));
-        panel3.add(label4, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        searchLabel = new JLabel();
+        panel3.add(searchLabel, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        replacementLabel = new JLabel();
+        panel3.add(replacementLabel, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         statisticsButton = new JButton();
-        this.$$$loadButtonText$$$(statisticsButton, ResourceBundle.getBundle("strings").getString("statistics"));
         panel3.add(statisticsButton, new GridConstraints(0, 2, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
-        label1.setLabelFor(oldScrollPane);
-        label2.setLabelFor(newScrollPane);
+        regexCheckBox = new JCheckBox();
+        panel3.add(regexCheckBox, new GridConstraints(2, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        caseComboBox = new JComboBox();
+        panel3.add(caseComboBox, new GridConstraints(2, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        scopeComboBox = new JComboBox();
+        panel3.add(scopeComboBox, new GridConstraints(2, 2, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        progressBar = new JProgressBar();
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+        panel3.add(progressBar, new GridConstraints(3, 0, 1, 2, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        cancelButton = new JButton();
+        cancelButton.setEnabled(false);
+        panel3.add(cancelButton, new GridConstraints(3, 2, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        filesLabel.setLabelFor(oldScrollPane);
+        previewLabel.setLabelFor(newScrollPane);
     }
 
     /**
@@ -376,60 +1016,6 @@ public class MainWindow {
         return new Font(resultName, style >= 0 ? style : currentFont.getStyle(), size >= 0 ? size : currentFont.getSize());
     }
 
-    /**
-     * @noinspection ALL
-     */
-    private void $$$loadLabelText$$$(JLabel component, String text) {
-        StringBuffer result = new StringBuffer();
-        boolean haveMnemonic = false;
-        char mnemonic = '\0';
-        int mnemonicIndex = -1;
-        for (int i = 0; i < text.length(); i++) {
-            if (text.charAt(i) == '&') {
-                i++;
-                if (i == text.length()) break;
-                if (!haveMnemonic && text.charAt(i) != '&') {
-                    haveMnemonic = true;
-                    mnemonic = text.charAt(i);
-                    mnemonicIndex = result.length();
-                }
-            }
-            result.append(text.charAt(i));
-        }
-        component.setText(result.toString());
-        if (haveMnemonic) {
-            component.setDisplayedMnemonic(mnemonic);
-            component.setDisplayedMnemonicIndex(mnemonicIndex);
-        }
-    }
-
-    /**
-     * @noinspection ALL
-     */
-    private void $$$loadButtonText$$$(AbstractButton component, String text) {
-        StringBuffer result = new StringBuffer();
-        boolean haveMnemonic = false;
-        char mnemonic = '\0';
-        int mnemonicIndex = -1;
-        for (int i = 0; i < text.length(); i++) {
-            if (text.charAt(i) == '&') {
-                i++;
-                if (i == text.length()) break;
-                if (!haveMnemonic && text.charAt(i) != '&') {
-                    haveMnemonic = true;
-                    mnemonic = text.charAt(i);
-                    mnemonicIndex = result.length();
-                }
-            }
-            result.append(text.charAt(i));
-        }
-        component.setText(result.toString());
-        if (haveMnemonic) {
-            component.setMnemonic(mnemonic);
-            component.setDisplayedMnemonicIndex(mnemonicIndex);
-        }
-    }
-
     /**
      * @noinspection ALL
      */
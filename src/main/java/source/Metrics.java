@@ -0,0 +1,361 @@
+package source;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the hot paths. Recording only adds to striped counters, so it is cheap
+ * enough to be done for every file. The values are published as MXBeans under "source:type=Metrics" and
+ * can be dumped periodically by setting the system property filemanager.metrics.interval to a number of
+ * seconds. The dump is logged, or written as JSON to the file given by filemanager.metrics.file.
+ */
+public final class Metrics {
+
+    /**
+     * Listing of a single directory, including the attributes of its entries
+     */
+    public static final Latency LISTING = new Latency("listing");
+    /**
+     * File attributes read
+     */
+    public static final Counter STAT = new Counter("stat");
+    /**
+     * Size scan of a directory, counting the files and bytes found
+     */
+    public static final Latency SIZE_SCAN = new Latency("sizeScan");
+    /**
+     * Hashing of a file by the duplicate finder, counting the bytes read
+     */
+    public static final Latency HASH = new Latency("hash");
+    /**
+     * Recomputation of the rename preview, counting the checked names
+     */
+    public static final Latency PREVIEW = new Latency("preview");
+    /**
+     * Checking and ordering of a rename batch
+     */
+    public static final Latency RENAME_PLAN = new Latency("renamePlan");
+    /**
+     * Execution of a rename batch, counting its moves
+     */
+    public static final Latency RENAME_BATCH = new Latency("renameBatch");
+    /**
+     * Move of a single entry
+     */
+    public static final Latency RENAME = new Latency("rename");
+    /**
+     * Time from the start of the program until its window is shown
+     */
+    public static final Latency FIRST_FRAME = new Latency("firstFrame");
+
+    private static final Metric[] ALL = {LISTING, STAT, SIZE_SCAN, HASH, PREVIEW, RENAME_PLAN, RENAME_BATCH, RENAME,
+            FIRST_FRAME};
+
+    private static boolean started;
+
+    private Metrics() {
+    }
+
+    /**
+     * Registers the MXBeans and starts the periodic dump if it is configured. Further calls do nothing.
+     */
+    public static synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        // loading the management classes takes a moment, so the startup is not delayed by it
+        BackgroundExecutor.execute(Metrics::register);
+
+        long interval = Long.getLong("filemanager.metrics.interval", 0);
+        if (interval > 0) {
+            String file = System.getProperty("filemanager.metrics.file");
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(job -> {
+                Thread thread = new Thread(job, "Metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(() -> dump(file), interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Metric metric : ALL) {
+            try {
+                server.registerMBean(metric, new ObjectName("source:type=Metrics,name=" + metric.name));
+            } catch (JMException e) {
+                System.err.println("Unable to register metric " + metric.name + ": " + e.toString());
+            }
+        }
+    }
+
+    private static void dump(String file) {
+        if (file == null) {
+            for (Metric metric : ALL) {
+                if (metric.getCount() > 0) {
+                    System.err.println("Metrics " + metric.summary());
+                }
+            }
+            return;
+        }
+        Path target = Paths.get(file);
+        try {
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.write(temp, toJson().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Unable to write metrics to " + file + ": " + e.toString());
+        }
+    }
+
+    /**
+     * @return Current values of all metrics as JSON object
+     */
+    public static String toJson() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < ALL.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('"').append(ALL[i].name).append("\":");
+            ALL[i].appendJson(builder);
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Values of a counter as seen through JMX
+     */
+    public interface CounterMXBean {
+        long getCount();
+    }
+
+    /**
+     * Values of a latency histogram as seen through JMX
+     */
+    public interface LatencyMXBean extends CounterMXBean {
+        double getTotalMillis();
+
+        double getMeanMillis();
+
+        double getMedianMillis();
+
+        double getPercentile99Millis();
+
+        double getMaxMillis();
+
+        long getFiles();
+
+        long getBytes();
+
+        double getFilesPerSecond();
+
+        double getBytesPerSecond();
+    }
+
+    private abstract static class Metric {
+        final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        public abstract long getCount();
+
+        abstract String summary();
+
+        abstract void appendJson(StringBuilder builder);
+    }
+
+    /**
+     * Number of events without timing
+     */
+    public static final class Counter extends Metric implements CounterMXBean {
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name) {
+            super(name);
+        }
+
+        /**
+         * @param events Number of events which occurred
+         */
+        public void add(long events) {
+            count.add(events);
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        String summary() {
+            return name + ": " + getCount();
+        }
+
+        @Override
+        void appendJson(StringBuilder builder) {
+            builder.append("{\"count\":").append(getCount()).append('}');
+        }
+    }
+
+    /**
+     * Durations of an operation in power of two buckets, together with the files and bytes it processed
+     */
+    public static final class Latency extends Metric implements LatencyMXBean {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder files = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        // bucket i counts durations below 2^i nanoseconds
+        private final LongAdder[] buckets = new LongAdder[64];
+
+        Latency(String name) {
+            super(name);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records a finished operation
+         *
+         * @param start Value of System.nanoTime() when the operation started
+         */
+        public void record(long start) {
+            record(start, 0, 0);
+        }
+
+        /**
+         * Records a finished operation
+         *
+         * @param start Value of System.nanoTime() when the operation started
+         * @param files Number of files processed
+         * @param bytes Number of bytes processed
+         */
+        public void record(long start, long files, long bytes) {
+            long duration = Math.max(0, System.nanoTime() - start);
+            count.increment();
+            nanos.add(duration);
+            max.accumulate(duration);
+            buckets[64 - Long.numberOfLeadingZeros(duration)].increment();
+            if (files != 0) {
+                this.files.add(files);
+            }
+            if (bytes != 0) {
+                this.bytes.add(bytes);
+            }
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getTotalMillis() {
+            return nanos.sum() / 1e6;
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long count = getCount();
+            return count == 0 ? 0 : getTotalMillis() / count;
+        }
+
+        @Override
+        public double getMedianMillis() {
+            return percentile(0.5);
+        }
+
+        @Override
+        public double getPercentile99Millis() {
+            return percentile(0.99);
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return max.get() / 1e6;
+        }
+
+        @Override
+        public long getFiles() {
+            return files.sum();
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        @Override
+        public double getFilesPerSecond() {
+            long nanos = this.nanos.sum();
+            return nanos == 0 ? 0 : getFiles() * 1e9 / nanos;
+        }
+
+        @Override
+        public double getBytesPerSecond() {
+            long nanos = this.nanos.sum();
+            return nanos == 0 ? 0 : getBytes() * 1e9 / nanos;
+        }
+
+        /**
+         * @return Upper bound of the bucket containing the given fraction of the operations, in milliseconds
+         */
+        private double percentile(double fraction) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(i == 63 ? Long.MAX_VALUE : 1L << i, max.get()) / 1e6;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        String summary() {
+            return String.format(Locale.ROOT, "%s: %d ops, %.3f ms mean, %.3f ms p50, %.3f ms p99, %.3f ms max, "
+                            + "%.0f files/s, %.0f bytes/s", name, getCount(), getMeanMillis(), getMedianMillis(),
+                    getPercentile99Millis(), getMaxMillis(), getFilesPerSecond(), getBytesPerSecond());
+        }
+
+        @Override
+        void appendJson(StringBuilder builder) {
+            builder.append(String.format(Locale.ROOT, "{\"count\":%d,\"totalMillis\":%.3f,\"meanMillis\":%.3f,"
+                            + "\"medianMillis\":%.3f,\"p99Millis\":%.3f,\"maxMillis\":%.3f,\"files\":%d,"
+                            + "\"bytes\":%d,\"filesPerSecond\":%.1f,\"bytesPerSecond\":%.1f}", getCount(),
+                    getTotalMillis(), getMeanMillis(), getMedianMillis(), getPercentile99Millis(), getMaxMillis(),
+                    getFiles(), getBytes(), getFilesPerSecond(), getBytesPerSecond()));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package source;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves locations entered by the user to paths of the matching file system. A location leading into a
+ * zip or jar archive, e.g. /data/backup.zip/photos, is resolved inside the archive by the zip file system
+ * provider, so archives can be browsed, measured and renamed in without extracting them. Opened archives
+ * stay open until {@link #closeAll()} and are written back then if they were changed.
+ */
+public final class PathResolver {
+
+    private static final Map<Path, FileSystem> archives = new ConcurrentHashMap<>();
+    private static boolean closeOnExit;
+
+    private PathResolver() {
+    }
+
+    /**
+     * @param location Path of a file or directory, possibly leading into an archive
+     * @return Absolute path of the location in the default file system or in the file system of the archive
+     * @throws IOException if an archive on the way cannot be opened
+     */
+    public static Path resolve(String location) throws IOException {
+        Path path = Paths.get(location).toAbsolutePath();
+        Path prefix = path.getRoot();
+        for (int i = 0; i < path.getNameCount(); i++) {
+            prefix = prefix.resolve(path.getName(i));
+            if (isArchive(prefix) && Files.isRegularFile(prefix)) {
+                Path inner = open(prefix).getPath("/");
+                for (int j = i + 1; j < path.getNameCount(); j++) {
+                    inner = inner.resolve(path.getName(j).toString());
+                }
+                return inner;
+            }
+        }
+        return path;
+    }
+
+    /**
+     * @param path Path of any file system
+     * @return Location of the path as accepted by {@link #resolve(String)}
+     */
+    public static String toString(Path path) {
+        for (Map.Entry<Path, FileSystem> archive : archives.entrySet()) {
+            if (archive.getValue() == path.getFileSystem()) {
+                String inner = path.toAbsolutePath().toString();
+                return inner.equals("/") ? archive.getKey().toString()
+                        : archive.getKey() + archive.getKey().getFileSystem().getSeparator() + inner.substring(1);
+            }
+        }
+        return path.toString();
+    }
+
+    /**
+     * @param path Path of any file system
+     * @return Name of the file or directory, the archive name or the location itself for a root
+     */
+    public static String nameOf(Path path) {
+        Path name = path.getFileName();
+        if (name != null) {
+            return name.toString();
+        }
+        Path location = Paths.get(toString(path));
+        return location.getFileName() != null ? location.getFileName().toString() : location.toString();
+    }
+
+    /**
+     * @param path Path of any file system
+     * @return true if the path belongs to the default file system, e.g. to use caches keyed by path strings
+     */
+    public static boolean isDefault(Path path) {
+        return path.getFileSystem() == FileSystems.getDefault();
+    }
+
+    /**
+     * Closes all opened archives, writing back changed ones
+     */
+    public static void closeAll() {
+        for (Map.Entry<Path, FileSystem> archive : archives.entrySet()) {
+            try {
+                archive.getValue().close();
+            } catch (IOException e) {
+                System.err.println("Unable to close " + archive.getKey() + ": " + e.toString());
+            }
+        }
+        archives.clear();
+    }
+
+    private static boolean isArchive(Path file) {
+        Path name = file.getFileName();
+        if (name == null) {
+            return false;
+        }
+        String lowerCase = name.toString().toLowerCase(Locale.ROOT);
+        return lowerCase.endsWith(".zip") || lowerCase.endsWith(".jar");
+    }
+
+    private static FileSystem open(Path archive) throws IOException {
+        Path key = archive.toAbsolutePath().normalize();
+        synchronized (archives) {
+            FileSystem fileSystem = archives.get(key);
+            if (fileSystem == null || !fileSystem.isOpen()) {
+                if (!closeOnExit) {
+                    // changes inside archives are only written when they are closed
+                    Runtime.getRuntime().addShutdownHook(new Thread(PathResolver::closeAll));
+                    closeOnExit = true;
+                }
+                fileSystem = FileSystems.newFileSystem(key, (ClassLoader) null);
+                archives.put(key, fileSystem);
+            }
+            return fileSystem;
+        }
+    }
+}
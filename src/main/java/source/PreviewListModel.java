@@ -0,0 +1,108 @@
+package source;
+
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.BitSet;
+
+/**
+ * List model showing the new names of the entries of a {@link FileListModel}. The new names are not stored,
+ * they are computed when the list asks for a row, which only happens for the visible rows.
+ */
+public class PreviewListModel extends AbstractListModel<String> implements ListDataListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_RANGES = 256;
+
+    private final FileListModel source;
+    private NameFunction renamer = (index, name) -> name;
+
+    /**
+     * @param source Model with the original names
+     */
+    public PreviewListModel(FileListModel source) {
+        this.source = source;
+        source.addListDataListener(this);
+    }
+
+    /**
+     * Replaces the function computing the new names and refreshes all rows at once
+     *
+     * @param renamer Maps an original name and its row to the new name
+     */
+    public void setRenamer(NameFunction renamer) {
+        setRenamer(renamer, null);
+    }
+
+    /**
+     * Replaces the function computing the new names and refreshes the given rows
+     *
+     * @param renamer Maps an original name and its row to the new name
+     * @param changed Rows whose new name changed, or null to refresh all rows
+     */
+    public void setRenamer(NameFunction renamer, BitSet changed) {
+        this.renamer = renamer;
+        int size = getSize();
+        if (size == 0) {
+            return;
+        }
+        if (changed == null) {
+            fireContentsChanged(this, 0, size - 1);
+            return;
+        }
+        int first = changed.nextSetBit(0);
+        if (first < 0 || first >= size) {
+            return;
+        }
+        if (changed.cardinality() > MAX_RANGES) {
+            // too many single events, refresh the whole changed region instead
+            fireContentsChanged(this, first, Math.min(changed.length(), size) - 1);
+            return;
+        }
+        for (int start = first; start >= 0 && start < size; start = changed.nextSetBit(start)) {
+            int end = Math.min(changed.nextClearBit(start), size);
+            fireContentsChanged(this, start, end - 1);
+            start = end;
+        }
+    }
+
+    /**
+     * @return Function computing the new names
+     */
+    public NameFunction getRenamer() {
+        return renamer;
+    }
+
+    @Override
+    public int getSize() {
+        return source.getSize();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return renamer.apply(index, source.getElementAt(index));
+    }
+
+    @Override
+    public void intervalAdded(ListDataEvent e) {
+        fireIntervalAdded(this, e.getIndex0(), e.getIndex1());
+    }
+
+    @Override
+    public void intervalRemoved(ListDataEvent e) {
+        fireIntervalRemoved(this, e.getIndex0(), e.getIndex1());
+    }
+
+    @Override
+    public void contentsChanged(ListDataEvent e) {
+        fireContentsChanged(this, e.getIndex0(), e.getIndex1());
+    }
+
+    /**
+     * Computes the new name of a row
+     */
+    public interface NameFunction {
+        String apply(int index, String name);
+    }
+}
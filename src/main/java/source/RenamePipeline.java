@@ -0,0 +1,433 @@
+package source;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled set of rename rules. The search text is either a literal or a regular expression and is
+ * applied to the whole name, the name without extension or the extension only. Every occurrence is
+ * replaced by the replacement template, afterwards the case of the edited part can be changed.
+ * <p>
+ * The replacement template supports the following tokens:
+ * <ul>
+ * <li>{@code $0} - {@code $9}: groups of the regular expression</li>
+ * <li>{@code {n}}, {@code {n:WIDTH}}, {@code {n:WIDTH:START}}: counter over all matching entries, zero
+ * padded to the given width</li>
+ * <li>{@code {date:PATTERN}}: last modification time of the file, formatted as {@link DateTimeFormatter}
+ * pattern</li>
+ * </ul>
+ * If the search text is empty, the replacement is used as prefix like before.
+ * <p>
+ * A pipeline is immutable and compiled once per input. Names are processed by a {@link Renamer}, which
+ * reuses its matcher and output buffer and therefore must not be shared between threads.
+ */
+public final class RenamePipeline {
+
+    /**
+     * Case transformation applied to the edited part of the name
+     */
+    public enum CaseMode {NONE, UPPER, LOWER, TITLE}
+
+    /**
+     * Part of the name the rules are applied to
+     */
+    public enum Scope {NAME, BASE_NAME, EXTENSION}
+
+    private final String search;
+    private final boolean regex;
+    private final Pattern pattern;
+    private final Segment[] template;
+    private final CaseMode caseMode;
+    private final Scope scope;
+    private final boolean usesAttributes;
+    private final boolean usesCounter;
+
+    private RenamePipeline(String search, boolean regex, Segment[] template, CaseMode caseMode, Scope scope) {
+        this.search = search;
+        this.regex = regex && !search.isEmpty();
+        this.pattern = this.regex ? Pattern.compile(search) : null;
+        this.template = template;
+        this.caseMode = caseMode;
+        this.scope = scope;
+        boolean attributes = false;
+        boolean counter = false;
+        for (Segment segment : template) {
+            attributes |= segment instanceof DateSegment;
+            counter |= segment instanceof CounterSegment;
+        }
+        this.usesAttributes = attributes;
+        this.usesCounter = counter;
+    }
+
+    /**
+     * Compiles the rename rules
+     *
+     * @param search      Text to replace, if empty the replacement is used as prefix
+     * @param replacement Replacement template
+     * @param regex       true if the search text is a regular expression
+     * @param caseMode    Case transformation of the edited part
+     * @param scope       Part of the name to edit
+     * @return Compiled pipeline
+     * @throws java.util.regex.PatternSyntaxException if the regular expression is invalid
+     * @throws IllegalArgumentException               if a date pattern is invalid
+     */
+    public static RenamePipeline compile(String search, String replacement, boolean regex, CaseMode caseMode,
+                                         Scope scope) {
+        return new RenamePipeline(search, regex, parseTemplate(replacement, regex && !search.isEmpty()),
+                caseMode, scope);
+    }
+
+    /**
+     * Compiles the literal search and replacement used by the original rename dialog
+     *
+     * @param search      Text to replace, if empty the replacement is used as prefix
+     * @param replacement Replacement text
+     * @return Compiled pipeline
+     */
+    public static RenamePipeline literal(String search, String replacement) {
+        return new RenamePipeline(search, false, new Segment[]{new LiteralSegment(replacement)}, CaseMode.NONE,
+                Scope.NAME);
+    }
+
+    /**
+     * @return true if the template needs the modification time of the files
+     */
+    public boolean usesAttributes() {
+        return usesAttributes;
+    }
+
+    /**
+     * @return true if the template contains a counter
+     */
+    public boolean usesCounter() {
+        return usesCounter;
+    }
+
+    /**
+     * Checks whether the entries matching this pipeline are a subset of the entries matching a previous
+     * one, so only the previous matches have to be searched again
+     *
+     * @param previous Previously used pipeline
+     * @return true if only the previous matches can match
+     */
+    public boolean narrows(RenamePipeline previous) {
+        return previous != null && !regex && !previous.regex && scope == previous.scope
+                && !previous.search.isEmpty() && search.contains(previous.search);
+    }
+
+    /**
+     * @return New renamer for the calling thread
+     */
+    public Renamer renamer() {
+        return new Renamer();
+    }
+
+    private static Segment[] parseTemplate(String replacement, boolean groups) {
+        List<Segment> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < replacement.length()) {
+            char c = replacement.charAt(i);
+            Segment token = null;
+            int end = i + 1;
+            if (groups && c == '$' && i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))) {
+                token = new GroupSegment(replacement.charAt(i + 1) - '0');
+                end = i + 2;
+            } else if (c == '{') {
+                int close = replacement.indexOf('}', i);
+                if (close > 0) {
+                    token = parseToken(replacement.substring(i + 1, close));
+                    end = close + 1;
+                }
+            }
+            if (token == null) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            if (literal.length() > 0) {
+                segments.add(new LiteralSegment(literal.toString()));
+                literal.setLength(0);
+            }
+            segments.add(token);
+            i = end;
+        }
+        if (literal.length() > 0) {
+            segments.add(new LiteralSegment(literal.toString()));
+        }
+        return segments.toArray(new Segment[0]);
+    }
+
+    private static Segment parseToken(String token) {
+        if (token.equals("n") || token.startsWith("n:")) {
+            String[] parts = token.split(":");
+            try {
+                int width = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+                long start = parts.length > 2 ? Long.parseLong(parts[2]) : 1;
+                return new CounterSegment(width, start);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (token.startsWith("date:")) {
+            return new DateSegment(DateTimeFormatter.ofPattern(token.substring(5)).withZone(ZoneId.systemDefault()));
+        }
+        return null;
+    }
+
+    /**
+     * Applies the pipeline to single names. Not thread safe.
+     */
+    public final class Renamer {
+
+        private final Matcher matcher = pattern != null ? pattern.matcher("") : null;
+        private final StringBuilder out = new StringBuilder();
+        private int start;
+        private int end;
+
+        /**
+         * @param name Name of a file, directories end with '/'
+         * @return true if the search text occurs in the edited part of the name
+         */
+        public boolean matches(CharSequence name) {
+            if (!selectRegion(name)) {
+                return false;
+            }
+            if (search.isEmpty()) {
+                return true;
+            }
+            if (matcher != null) {
+                matcher.reset(name).region(start, end);
+                return matcher.find();
+            }
+            return indexOf(name, start) >= 0;
+        }
+
+        /**
+         * Computes the new name. The result is only valid until the next call.
+         *
+         * @param name         Name of a file, directories end with '/'
+         * @param sequence     Position of the entry among all matching entries, starting at 0
+         * @param lastModified Modification time of the file in milliseconds, only used by date tokens
+         * @return New name, or the unchanged name if it does not match
+         */
+        public CharSequence rename(CharSequence name, long sequence, long lastModified) {
+            if (!matches(name)) {
+                return name;
+            }
+            out.setLength(0);
+            out.append(name, 0, start);
+            int editStart = out.length();
+            if (search.isEmpty()) {
+                appendTemplate(name, sequence, lastModified);
+                out.append(name, start, end);
+            } else if (matcher != null) {
+                // matcher is positioned at the first match by matches()
+                int position = start;
+                boolean found = true;
+                while (found) {
+                    out.append(name, position, matcher.start());
+                    appendTemplate(name, sequence, lastModified);
+                    position = matcher.end();
+                    found = matcher.find();
+                }
+                out.append(name, position, end);
+            } else {
+                int position = start;
+                int index = indexOf(name, position);
+                while (index >= 0) {
+                    out.append(name, position, index);
+                    appendTemplate(name, sequence, lastModified);
+                    position = index + search.length();
+                    index = indexOf(name, position);
+                }
+                out.append(name, position, end);
+            }
+            transformCase(editStart, out.length());
+            out.append(name, end, name.length());
+
+            // prevent empty name and '/' as name
+            if (out.length() == 0 || (out.length() == 1 && out.charAt(0) == '/')) {
+                return name;
+            }
+            return out;
+        }
+
+        /**
+         * @param name         Name of a file, directories end with '/'
+         * @param sequence     Position of the entry among all matching entries, starting at 0
+         * @param lastModified Modification time of the file in milliseconds, only used by date tokens
+         * @return New name
+         */
+        public String renameToString(String name, long sequence, long lastModified) {
+            CharSequence result = rename(name, sequence, lastModified);
+            return result == name ? name : result.toString();
+        }
+
+        /**
+         * Limits the edit to the part of the name selected by the scope
+         *
+         * @return false if the name has no such part
+         */
+        private boolean selectRegion(CharSequence name) {
+            int length = name.length();
+            if (length > 0 && name.charAt(length - 1) == '/') {
+                // directories have no extension
+                if (scope == Scope.EXTENSION) {
+                    return false;
+                }
+                start = 0;
+                end = length - 1;
+                return true;
+            }
+            int dot = -1;
+            if (scope != Scope.NAME) {
+                for (int i = length - 1; i > 0; i--) {
+                    if (name.charAt(i) == '.') {
+                        dot = i;
+                        break;
+                    }
+                }
+            }
+            switch (scope) {
+                case BASE_NAME:
+                    start = 0;
+                    end = dot > 0 ? dot : length;
+                    return true;
+                case EXTENSION:
+                    start = dot + 1;
+                    end = length;
+                    return dot > 0;
+                default:
+                    start = 0;
+                    end = length;
+                    return true;
+            }
+        }
+
+        private int indexOf(CharSequence name, int from) {
+            int length = search.length();
+            char first = search.charAt(0);
+            for (int i = from; i <= end - length; i++) {
+                if (name.charAt(i) != first) {
+                    continue;
+                }
+                int j = 1;
+                while (j < length && name.charAt(i + j) == search.charAt(j)) {
+                    j++;
+                }
+                if (j == length) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void appendTemplate(CharSequence name, long sequence, long lastModified) {
+            for (Segment segment : template) {
+                segment.append(out, name, matcher, sequence, lastModified);
+            }
+        }
+
+        private void transformCase(int from, int to) {
+            boolean wordStart = true;
+            for (int i = from; i < to; i++) {
+                char c = out.charAt(i);
+                switch (caseMode) {
+                    case UPPER:
+                        out.setCharAt(i, Character.toUpperCase(c));
+                        break;
+                    case LOWER:
+                        out.setCharAt(i, Character.toLowerCase(c));
+                        break;
+                    case TITLE:
+                        out.setCharAt(i, wordStart ? Character.toTitleCase(c) : Character.toLowerCase(c));
+                        wordStart = !Character.isLetterOrDigit(c);
+                        break;
+                    default:
+                        return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Part of the replacement template
+     */
+    private interface Segment {
+        void append(StringBuilder out, CharSequence name, Matcher matcher, long sequence, long lastModified);
+    }
+
+    private static final class LiteralSegment implements Segment {
+        private final String text;
+
+        LiteralSegment(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void append(StringBuilder out, CharSequence name, Matcher matcher, long sequence, long lastModified) {
+            out.append(text);
+        }
+    }
+
+    private static final class GroupSegment implements Segment {
+        private final int group;
+
+        GroupSegment(int group) {
+            this.group = group;
+        }
+
+        @Override
+        public void append(StringBuilder out, CharSequence name, Matcher matcher, long sequence, long lastModified) {
+            if (matcher != null && group <= matcher.groupCount() && matcher.start(group) >= 0) {
+                // append the range instead of matcher.group() to avoid a substring
+                out.append(name, matcher.start(group), matcher.end(group));
+            }
+        }
+    }
+
+    private static final class CounterSegment implements Segment {
+        private final int width;
+        private final long start;
+
+        CounterSegment(int width, long start) {
+            this.width = width;
+            this.start = start;
+        }
+
+        @Override
+        public void append(StringBuilder out, CharSequence name, Matcher matcher, long sequence, long lastModified) {
+            long value = start + sequence;
+            int digits = 1;
+            for (long rest = Math.abs(value / 10); rest > 0; rest /= 10) {
+                digits++;
+            }
+            if (value < 0) {
+                out.append('-');
+            }
+            for (int i = digits; i < width; i++) {
+                out.append('0');
+            }
+            out.append(Math.abs(value));
+        }
+    }
+
+    private static final class DateSegment implements Segment {
+        private final DateTimeFormatter formatter;
+
+        DateSegment(DateTimeFormatter formatter) {
+            this.formatter = formatter;
+        }
+
+        @Override
+        public void append(StringBuilder out, CharSequence name, Matcher matcher, long sequence, long lastModified) {
+            formatter.formatTo(Instant.ofEpochMilli(lastModified), out);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package source;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Determines the new names of the entries of a directory. Used by the preview of the window as well as
+ * by the command line, so it must not depend on Swing.
+ */
+public class RenamePlanner {
+
+    private final Path directory;
+    private final RenamePipeline pipeline;
+    private final RenamePipeline.Renamer renamer;
+    private long sequence;
+
+    /**
+     * @param directory Directory containing the entries, used to read modification times for date tokens,
+     *                  may be null if the times are passed to {@link #rename(String, long)}
+     * @param pipeline  Compiled rename rules
+     */
+    public RenamePlanner(Path directory, RenamePipeline pipeline) {
+        this.directory = directory;
+        this.pipeline = pipeline;
+        this.renamer = pipeline.renamer();
+    }
+
+    /**
+     * Lists a directory the way it is displayed: directories first, marked by a trailing '/'
+     *
+     * @param directory Directory to list
+     * @return Names of the entries
+     * @throws IOException if the directory cannot be listed
+     */
+    public static List<String> list(Path directory) throws IOException {
+        long start = System.nanoTime();
+        List<String> directories = new ArrayList<>();
+        List<String> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (Files.isDirectory(file)) {
+                    directories.add(name + "/");
+                } else {
+                    files.add(name);
+                }
+            }
+        }
+        directories.addAll(files);
+        Metrics.STAT.add(directories.size());
+        Metrics.LISTING.record(start, directories.size(), 0);
+        return directories;
+    }
+
+    /**
+     * Computes the new name of the next entry. Entries must be passed in list order, since counters number
+     * the matching entries in the order they are passed.
+     *
+     * @param name Name of the entry, directories end with '/'
+     * @return New name, or the unchanged name
+     */
+    public String rename(String name) {
+        if (!renamer.matches(name)) {
+            return name;
+        }
+        return renamer.renameToString(name, sequence++, lastModified(name));
+    }
+
+    /**
+     * Computes the new name of the next entry whose modification time is already known
+     *
+     * @param name         Name of the entry, directories end with '/'
+     * @param lastModified Modification time of the entry in milliseconds
+     * @return New name, or the unchanged name
+     */
+    public String rename(String name, long lastModified) {
+        if (!renamer.matches(name)) {
+            return name;
+        }
+        return renamer.renameToString(name, sequence++, lastModified);
+    }
+
+    /**
+     * Determines the entries which are renamed
+     *
+     * @param names Names of the entries in list order
+     * @return Original names mapped to their new names
+     */
+    public Map<String, String> plan(Iterable<String> names) {
+        Map<String, String> renames = new LinkedHashMap<>();
+        for (String name : names) {
+            String tmp = rename(name);
+            if (!tmp.equals(name)) {
+                renames.put(name, tmp);
+            }
+        }
+        return renames;
+    }
+
+    /**
+     * Reads the modification time of an entry if the rules contain a date token
+     *
+     * @param name Name of the entry, directories end with '/'
+     * @return Modification time in milliseconds, 0 if it is not needed or cannot be read
+     */
+    private long lastModified(String name) {
+        if (!pipeline.usesAttributes() || directory == null) {
+            return 0;
+        }
+        try {
+            String fileName = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+            Metrics.STAT.increment();
+            return Files.getLastModifiedTime(directory.resolve(fileName)).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package source;
+
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps the rename preview up to date while the user types. Input is debounced, matching runs in the
+ * background on a snapshot of the file list, and only the rows whose preview changed are refreshed. If the
+ * new search text contains the previous one, only the previous matches are searched again.
+ */
+public class RenamePreviewEngine implements ListDataListener {
+
+    private static final int DEBOUNCE_DELAY = 120;
+
+    private final FileListModel source;
+    private final PreviewListModel preview;
+    private final Timer timer;
+
+    private RenamePipeline pipeline = RenamePipeline.literal("", "");
+    private volatile int generation;
+
+    // state of the last computation, only accessed on the event dispatch thread
+    private FileListModel.Snapshot lastSnapshot;
+    private RenamePipeline lastPipeline;
+    private BitSet lastMatched = new BitSet();
+    private BitSet lastRenamed = new BitSet();
+
+    /**
+     * @param source  Model with the original names
+     * @param preview Model showing the new names
+     */
+    public RenamePreviewEngine(FileListModel source, PreviewListModel preview) {
+        this.source = source;
+        this.preview = preview;
+        this.timer = new Timer(DEBOUNCE_DELAY, actionEvent -> compute());
+        timer.setRepeats(false);
+        source.addListDataListener(this);
+    }
+
+    /**
+     * Requests a preview for new input. The preview is computed once the input is stable.
+     *
+     * @param pipeline Compiled rename rules
+     */
+    public void update(RenamePipeline pipeline) {
+        this.pipeline = pipeline;
+        timer.restart();
+    }
+
+    /**
+     * Determines the files which are renamed by the given rules. Uses the last preview if it is still
+     * valid, otherwise all names are checked. Date tokens use the modification times of the list, so no
+     * file is accessed.
+     *
+     * @param pipeline Compiled rename rules
+     * @return Original names mapped to their new names
+     */
+    public Map<String, String> collectRenames(RenamePipeline pipeline) {
+        FileListModel.Snapshot snapshot = source.snapshot();
+        boolean current = snapshot == lastSnapshot && pipeline == lastPipeline;
+        RenamePlanner planner = new RenamePlanner(null, pipeline);
+        Map<String, String> renames = new LinkedHashMap<>();
+        for (int i = current ? lastMatched.nextSetBit(0) : 0;
+             i >= 0 && i < snapshot.size();
+             i = current ? lastMatched.nextSetBit(i + 1) : i + 1) {
+            String name = snapshot.get(i);
+            String tmp = planner.rename(name, snapshot.getLastModified(i));
+            if (!tmp.equals(name)) {
+                renames.put(name, tmp);
+            }
+        }
+        return renames;
+    }
+
+    private void compute() {
+        RenamePipeline pipeline = this.pipeline;
+        FileListModel.Snapshot snapshot = source.snapshot();
+        int current = ++generation;
+
+        // narrowing is only valid for the same content and an extended search text
+        BitSet candidates = snapshot == lastSnapshot && pipeline.narrows(lastPipeline) ? lastMatched : null;
+
+        BackgroundExecutor.execute(() -> {
+            long start = System.nanoTime();
+            BitSet matched = new BitSet(snapshot.size());
+            BitSet renamed = new BitSet(snapshot.size());
+            if (!match(snapshot, pipeline, candidates, matched, renamed, () -> generation != current)) {
+                // outdated by newer input
+                return;
+            }
+            Metrics.PREVIEW.record(start, candidates != null ? candidates.cardinality() : snapshot.size(), 0);
+            SwingUtilities.invokeLater(() -> publish(current, snapshot, pipeline, matched, renamed));
+        });
+    }
+
+    /**
+     * Determines the rows matched and renamed by the given rules
+     *
+     * @param snapshot   Names to check
+     * @param pipeline   Compiled rename rules
+     * @param candidates Rows which may match, null to check all rows
+     * @param matched    Receives the matching rows
+     * @param renamed    Receives the rows whose name changes
+     * @param outdated   Polled to stop early
+     * @return false if stopped early
+     */
+    static boolean match(FileListModel.Snapshot snapshot, RenamePipeline pipeline, BitSet candidates,
+                         BitSet matched, BitSet renamed, BooleanSupplier outdated) {
+        RenamePipeline.Renamer renamer = pipeline.renamer();
+        FileListModel.Snapshot.View view = snapshot.view();
+        long sequence = 0;
+        for (int i = candidates != null ? candidates.nextSetBit(0) : 0;
+             i >= 0 && i < snapshot.size();
+             i = candidates != null ? candidates.nextSetBit(i + 1) : i + 1) {
+            if (outdated.getAsBoolean()) {
+                return false;
+            }
+            if (!renamer.matches(view.at(i))) {
+                continue;
+            }
+            matched.set(i);
+            if (!view.contentEquals(renamer.rename(view, sequence, snapshot.getLastModified(i)))) {
+                renamed.set(i);
+            }
+            sequence++;
+        }
+        return true;
+    }
+
+    private void publish(int current, FileListModel.Snapshot snapshot, RenamePipeline pipeline, BitSet matched,
+                         BitSet renamed) {
+        if (generation != current) {
+            return;
+        }
+        BitSet changed = null;
+        if (snapshot == lastSnapshot) {
+            changed = (BitSet) renamed.clone();
+            if (pipeline == lastPipeline) {
+                changed.xor(lastRenamed);
+            } else {
+                // rows renamed before or now may show a different name
+                changed.or(lastRenamed);
+            }
+        }
+        lastSnapshot = snapshot;
+        lastPipeline = pipeline;
+        lastMatched = matched;
+        lastRenamed = renamed;
+
+        RenamePipeline.Renamer renamer = pipeline.renamer();
+        Ranks ranks = pipeline.usesCounter() ? new Ranks(matched) : null;
+        preview.setRenamer((index, name) -> renamer.renameToString(name, ranks != null ? ranks.rank(index) : 0,
+                source.getLastModified(index)), changed);
+    }
+
+    @Override
+    public void intervalAdded(ListDataEvent e) {
+        timer.restart();
+    }
+
+    @Override
+    public void intervalRemoved(ListDataEvent e) {
+        timer.restart();
+    }
+
+    @Override
+    public void contentsChanged(ListDataEvent e) {
+        timer.restart();
+    }
+
+    /**
+     * Position of a row among the matching rows, used by counters. Stores one count per 64 rows.
+     */
+    private static class Ranks {
+        private final long[] words;
+        private final int[] counts;
+
+        Ranks(BitSet matched) {
+            words = matched.toLongArray();
+            counts = new int[words.length + 1];
+            for (int i = 0; i < words.length; i++) {
+                counts[i + 1] = counts[i] + Long.bitCount(words[i]);
+            }
+        }
+
+        int rank(int index) {
+            int word = index >>> 6;
+            if (word >= words.length) {
+                return counts[words.length];
+            }
+            return counts[word] + Long.bitCount(words[word] & ((1L << (index & 63)) - 1));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package source;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of directory sizes. For every scanned directory it stores its modification time, the
+ * files directly inside it and the aggregated size of the whole subtree. A directory whose modification
+ * time did not change since the last scan does not need to be listed again.
+ * <p>
+ * Note that the modification time of a directory only changes if entries are added, removed or renamed.
+ * Files which are rewritten in place keep their old size in the index until their directory changes.
+ */
+public class SizeIndex {
+
+    private static final int MAGIC = 0x464d5349; // "FMSI"
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+
+    /**
+     * Creates an index backed by the given file. The file is read on first access.
+     *
+     * @param file Location of the index file
+     */
+    public SizeIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return Default location of the index in the home directory of the user
+     */
+    public static Path defaultLocation() {
+        return Paths.get(System.getProperty("user.home"), ".filemanager", "sizes.idx");
+    }
+
+    /**
+     * Looks up the indexed state of a directory
+     *
+     * @param directory Directory to look up
+     * @return Indexed state or null if the directory is unknown
+     */
+    Entry get(Path directory) {
+        ensureLoaded();
+        return entries.get(directory.toString());
+    }
+
+    /**
+     * Stores the state of a directory
+     *
+     * @param directory Scanned directory
+     * @param entry     State of the directory
+     */
+    void put(Path directory, Entry entry) {
+        ensureLoaded();
+        entries.put(directory.toString(), entry);
+        dirty = true;
+    }
+
+    /**
+     * Removes a directory and all its subdirectories from the index
+     *
+     * @param directory Directory which no longer exists
+     */
+    void removeTree(Path directory) {
+        ensureLoaded();
+        Entry entry = entries.remove(directory.toString());
+        if (entry != null) {
+            dirty = true;
+            // only indexed subdirectories can have indexed children
+            for (String name : entry.subdirectories) {
+                removeTree(directory.resolve(name));
+            }
+        }
+    }
+
+    /**
+     * Marks a directory and all its parents as changed, so the next scan lists them again
+     *
+     * @param directory Directory whose content changed
+     */
+    public void invalidate(Path directory) {
+        ensureLoaded();
+        for (Path dir = directory; dir != null; dir = dir.getParent()) {
+            if (entries.remove(dir.toString()) != null) {
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the index to disk if it changed since it was loaded
+     *
+     * @throws IOException if the index file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        // the watcher may change entries meanwhile: those changes mark the index dirty again, and the count
+        // written must match the entries written
+        dirty = false;
+        List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> e : snapshot) {
+                    out.writeUTF(e.getKey());
+                    e.getValue().write(out);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+    }
+
+    private void ensureLoaded() {
+        // called by every scanner thread, so only the first access locks
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    load();
+                    loaded = true;
+                }
+            }
+        }
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                entries.put(path, Entry.read(in));
+            }
+        } catch (IOException e) {
+            // a broken index only costs a full rescan
+            System.err.println("Unable to read size index " + file + ": " + e.toString());
+            entries.clear();
+        }
+    }
+
+    /**
+     * Indexed state of a single directory
+     */
+    static class Entry {
+        final long lastModified;
+        final long ownSize;
+        final long ownFiles;
+        final long size;
+        final long fileCount;
+        final String[] subdirectories;
+
+        Entry(long lastModified, long ownSize, long ownFiles, long size, long fileCount, String[] subdirectories) {
+            this.lastModified = lastModified;
+            this.ownSize = ownSize;
+            this.ownFiles = ownFiles;
+            this.size = size;
+            this.fileCount = fileCount;
+            this.subdirectories = subdirectories;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeLong(lastModified);
+            out.writeLong(ownSize);
+            out.writeLong(ownFiles);
+            out.writeLong(size);
+            out.writeLong(fileCount);
+            out.writeInt(subdirectories.length);
+            for (String name : subdirectories) {
+                out.writeUTF(name);
+            }
+        }
+
+        static Entry read(DataInput in) throws IOException {
+            long lastModified = in.readLong();
+            long ownSize = in.readLong();
+            long ownFiles = in.readLong();
+            long size = in.readLong();
+            long fileCount = in.readLong();
+            String[] subdirectories = new String[in.readInt()];
+            for (int i = 0; i < subdirectories.length; i++) {
+                subdirectories[i] = in.readUTF();
+            }
+            return new Entry(lastModified, ownSize, ownFiles, size, fileCount, subdirectories);
+        }
+    }
+}
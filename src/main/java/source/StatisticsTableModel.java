@@ -0,0 +1,177 @@
+package source;
+
+import javax.swing.table.AbstractTableModel;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.function.Function;
+
+/**
+ * Rows of a statistics table: name, size, number of files and optionally the modification time. Sizes and
+ * counts are stored as numbers, so the table sorts them numerically.
+ */
+public class StatisticsTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int NAME_COLUMN = 0;
+    static final int SIZE_COLUMN = 1;
+    static final int FILES_COLUMN = 2;
+    static final int MODIFIED_COLUMN = 3;
+
+    private final String[] columnNames;
+    private final String[] names;
+    private final long[] sizes;
+    private final long[] files;
+    private final long[] modified;
+    private int[] nodes;
+
+    private StatisticsTableModel(ResourceBundle strings, int rows, boolean withDates) {
+        this(strings, rows, withDates, "column_size");
+    }
+
+    private StatisticsTableModel(ResourceBundle strings, int rows, boolean withDates, String sizeColumn) {
+        columnNames = withDates
+                ? new String[]{strings.getString("column_name"), strings.getString(sizeColumn),
+                strings.getString("column_files"), strings.getString("column_modified")}
+                : new String[]{strings.getString("column_name"), strings.getString(sizeColumn),
+                strings.getString("column_files")};
+        names = new String[rows];
+        sizes = new long[rows];
+        files = new long[rows];
+        modified = withDates ? new long[rows] : null;
+    }
+
+    /**
+     * @param strings Localized column names
+     * @param tree    Scanned tree
+     * @param node    Node of a directory in the tree
+     * @return Table of the children of the directory. Directories end with a slash, and with an ellipsis
+     * while their size is not complete.
+     */
+    static StatisticsTableModel ofTree(ResourceBundle strings, TreeStore tree, int node) {
+        int[] children = tree.getChildren(node);
+        StatisticsTableModel model = new StatisticsTableModel(strings, children.length, false);
+        model.nodes = children;
+        for (int i = 0; i < children.length; i++) {
+            String name = tree.getName(children[i]);
+            if (tree.isDirectory(children[i])) {
+                name += tree.isComplete(children[i]) ? "/" : "/ \u2026";
+            }
+            model.names[i] = name;
+            model.sizes[i] = tree.getSize(children[i]);
+            model.files[i] = tree.getFileCount(children[i]);
+        }
+        return model;
+    }
+
+    /**
+     * @param strings Localized column names
+     * @param root    Scanned directory, paths are shown relative to it
+     * @param entries Largest files or directories
+     * @return Table of the entries
+     */
+    static StatisticsTableModel ofEntries(ResourceBundle strings, Path root, List<TreeAnalysis.Entry> entries) {
+        StatisticsTableModel model = new StatisticsTableModel(strings, entries.size(), true);
+        for (int i = 0; i < entries.size(); i++) {
+            TreeAnalysis.Entry entry = entries.get(i);
+            model.names[i] = root.relativize(entry.getPath()).toString();
+            model.sizes[i] = entry.getSize();
+            model.files[i] = entry.getFileCount();
+            model.modified[i] = entry.getLastModified();
+        }
+        return model;
+    }
+
+    /**
+     * @param strings Localized column names
+     * @param buckets Histogram buckets
+     * @param label   Display name of a bucket
+     * @return Table of the buckets
+     */
+    static StatisticsTableModel ofBuckets(ResourceBundle strings, List<TreeAnalysis.Bucket> buckets,
+                                          Function<TreeAnalysis.Bucket, String> label) {
+        StatisticsTableModel model = new StatisticsTableModel(strings, buckets.size(), false);
+        for (int i = 0; i < buckets.size(); i++) {
+            TreeAnalysis.Bucket bucket = buckets.get(i);
+            model.names[i] = label.apply(bucket);
+            model.sizes[i] = bucket.getBytes();
+            model.files[i] = bucket.getFiles();
+        }
+        return model;
+    }
+
+    /**
+     * @param strings Localized column names
+     * @param root    Searched directory, paths are shown relative to it
+     * @param groups  Groups of identical files
+     * @return Table of the groups with the space freed by removing all but one file of each group
+     */
+    static StatisticsTableModel ofDuplicates(ResourceBundle strings, Path root, List<DuplicateFinder.Group> groups) {
+        StatisticsTableModel model = new StatisticsTableModel(strings, groups.size(), false, "column_reclaimable");
+        for (int i = 0; i < groups.size(); i++) {
+            DuplicateFinder.Group group = groups.get(i);
+            StringBuilder name = new StringBuilder();
+            for (Path file : group.getFiles()) {
+                if (name.length() > 0) {
+                    name.append(", ");
+                }
+                name.append(root.relativize(file));
+            }
+            model.names[i] = name.toString();
+            model.sizes[i] = group.getReclaimable();
+            model.files[i] = group.getFileCount();
+        }
+        return model;
+    }
+
+    /**
+     * @param row Row of a table created by {@link #ofTree(ResourceBundle, TreeStore, int)}
+     * @return Node shown in the row
+     */
+    int getNode(int row) {
+        return nodes[row];
+    }
+
+    @Override
+    public int getRowCount() {
+        return names.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (column) {
+            case NAME_COLUMN:
+                return String.class;
+            case MODIFIED_COLUMN:
+                return Date.class;
+            default:
+                return Long.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case NAME_COLUMN:
+                return names[row];
+            case SIZE_COLUMN:
+                return sizes[row];
+            case FILES_COLUMN:
+                return files[row];
+            default:
+                return new Date(modified[row]);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package source;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional trace of single file operations, e.g. every rename. Disabled by default; enabled with the system
+ * property filemanager.trace or by {@link #enable()}. Messages are queued and written to the error stream
+ * by a background thread, so tracing does not slow down the traced operation. If the writer falls behind,
+ * messages are dropped and counted.
+ */
+public final class Trace {
+
+    private static final int CAPACITY = 1 << 16;
+
+    private static volatile boolean enabled;
+    private static BlockingQueue<String> queue;
+    private static final LongAdder dropped = new LongAdder();
+    private static final Writer writer = new BufferedWriter(new OutputStreamWriter(System.err), 1 << 16);
+
+    static {
+        if (Boolean.getBoolean("filemanager.trace")) {
+            enable();
+        }
+    }
+
+    private Trace() {
+    }
+
+    /**
+     * Starts writing traced messages
+     */
+    public static synchronized void enable() {
+        if (enabled) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(CAPACITY);
+        Thread thread = new Thread(Trace::write, "Trace");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Trace::flush));
+        enabled = true;
+    }
+
+    /**
+     * @return true if messages are traced, checked before building a message
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a message if tracing is enabled
+     *
+     * @param message Message to write
+     */
+    public static void log(String message) {
+        if (enabled && !queue.offer(message)) {
+            dropped.increment();
+        }
+    }
+
+    private static void write() {
+        List<String> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                synchronized (writer) {
+                    writeAll(batch);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException | IOException e) {
+            // the trace ends with the program
+        }
+    }
+
+    private static void flush() {
+        List<String> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        synchronized (writer) {
+            try {
+                writeAll(batch);
+            } catch (IOException e) {
+                // nothing left to report to
+            }
+        }
+    }
+
+    private static void writeAll(List<String> batch) throws IOException {
+        for (String message : batch) {
+            writer.write(message);
+            writer.write(System.lineSeparator());
+        }
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            writer.write(lost + " trace messages dropped" + System.lineSeparator());
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,272 @@
+package source;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the largest files and directories at any depth and the sizes per extension and per age while a
+ * tree is scanned. Only the N largest entries are kept, so the memory does not depend on the size of the
+ * tree. Entries are reported by several scanner threads at once.
+ */
+public class TreeAnalysis {
+
+    /**
+     * Number of distinct extensions counted separately, further extensions are counted as "other"
+     */
+    private static final int MAX_EXTENSIONS = 1024;
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long[] AGE_LIMITS = {DAY, 7 * DAY, 30 * DAY, 365 * DAY, 5 * 365 * DAY, Long.MAX_VALUE};
+
+    private final long now = System.currentTimeMillis();
+    private final Largest files;
+    private final Largest directories;
+    private final ConcurrentHashMap<String, Bucket> extensions = new ConcurrentHashMap<>();
+    private final Bucket otherExtensions = new Bucket(null);
+    private final Bucket[] ages = new Bucket[AGE_LIMITS.length];
+
+    /**
+     * @param limit Number of largest files and directories to keep
+     */
+    public TreeAnalysis(int limit) {
+        files = new Largest(limit);
+        directories = new Largest(limit);
+        for (int i = 0; i < ages.length; i++) {
+            ages[i] = new Bucket(Integer.toString(i));
+        }
+    }
+
+    /**
+     * Adds a file
+     *
+     * @param file  Path of the file
+     * @param attrs Attributes of the file
+     */
+    void file(Path file, BasicFileAttributes attrs) {
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        files.offer(file, size, 1, lastModified);
+
+        String extension = extension(file.getFileName().toString());
+        Bucket bucket = extensions.get(extension);
+        if (bucket == null) {
+            bucket = extensions.size() < MAX_EXTENSIONS
+                    ? extensions.computeIfAbsent(extension, Bucket::new) : otherExtensions;
+        }
+        bucket.add(size);
+
+        long age = now - lastModified;
+        int i = 0;
+        while (age >= AGE_LIMITS[i]) {
+            i++;
+        }
+        ages[i].add(size);
+    }
+
+    /**
+     * Adds a completely measured directory
+     *
+     * @param directory    Path of the directory
+     * @param size         Total size of the files inside
+     * @param fileCount    Number of files inside
+     * @param lastModified Modification time of the directory
+     */
+    void directory(Path directory, long size, long fileCount, long lastModified) {
+        directories.offer(directory, size, fileCount, lastModified);
+    }
+
+    /**
+     * @return Largest files, largest first
+     */
+    public List<Entry> getLargestFiles() {
+        return files.toList();
+    }
+
+    /**
+     * @return Largest directories at any depth, largest first
+     */
+    public List<Entry> getLargestDirectories() {
+        return directories.toList();
+    }
+
+    /**
+     * @return Files and bytes per lower case extension, largest first. Files without extension have an empty
+     * name, the bucket for further extensions has none.
+     */
+    public List<Bucket> getExtensions() {
+        List<Bucket> list = new ArrayList<>(extensions.values());
+        if (otherExtensions.getFiles() > 0) {
+            list.add(otherExtensions);
+        }
+        list.sort((o1, o2) -> Long.compare(o2.getBytes(), o1.getBytes()));
+        return list;
+    }
+
+    /**
+     * @return Files and bytes modified within a day, a week, a month, a year, five years and earlier. The
+     * name of each bucket is its index.
+     */
+    public List<Bucket> getAges() {
+        List<Bucket> list = new ArrayList<>();
+        Collections.addAll(list, ages);
+        return list;
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot <= 0 || dot == name.length() - 1 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * File or directory among the largest ones
+     */
+    public static class Entry {
+        private final Path path;
+        private final long size;
+        private final long fileCount;
+        private final long lastModified;
+
+        Entry(Path path, long size, long fileCount, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.fileCount = fileCount;
+            this.lastModified = lastModified;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getFileCount() {
+            return fileCount;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * Number of files and bytes in one histogram bucket
+     */
+    public static class Bucket {
+        private final String name;
+        private final LongAdder files = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        Bucket(String name) {
+            this.name = name;
+        }
+
+        void add(long size) {
+            files.increment();
+            bytes.add(size);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getFiles() {
+            return files.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+    }
+
+    /**
+     * Bounded min-heap of the largest entries. Entries smaller than the smallest kept one are rejected
+     * without locking.
+     */
+    private static class Largest {
+        private final int limit;
+        private final long[] sizes;
+        private final Entry[] entries;
+        private int count;
+        private volatile long threshold = Long.MIN_VALUE;
+
+        Largest(int limit) {
+            this.limit = limit;
+            this.sizes = new long[limit];
+            this.entries = new Entry[limit];
+        }
+
+        void offer(Path path, long size, long fileCount, long lastModified) {
+            if (size <= threshold || limit == 0) {
+                return;
+            }
+            synchronized (this) {
+                if (count < limit) {
+                    sizes[count] = size;
+                    entries[count] = new Entry(path, size, fileCount, lastModified);
+                    siftUp(count++);
+                } else if (size > sizes[0]) {
+                    sizes[0] = size;
+                    entries[0] = new Entry(path, size, fileCount, lastModified);
+                    siftDown(0);
+                }
+                if (count == limit) {
+                    threshold = sizes[0];
+                }
+            }
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (sizes[parent] <= sizes[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= count) {
+                    return;
+                }
+                if (child + 1 < count && sizes[child + 1] < sizes[child]) {
+                    child++;
+                }
+                if (sizes[i] <= sizes[child]) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long size = sizes[a];
+            sizes[a] = sizes[b];
+            sizes[b] = size;
+            Entry entry = entries[a];
+            entries[a] = entries[b];
+            entries[b] = entry;
+        }
+
+        synchronized List<Entry> toList() {
+            List<Entry> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                list.add(entries[i]);
+            }
+            list.sort((o1, o2) -> Long.compare(o2.getSize(), o1.getSize()));
+            return list;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package source;
+
+import javax.swing.*;
+import javax.swing.RowSorter.SortKey;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.ResourceBundle;
+
+/**
+ * Drill-down view of a scanned tree showing the children of one directory at a time. A double click or
+ * Enter opens a directory, the up button or Backspace returns to the parent. All sizes come from the tree,
+ * so browsing needs no file access and the scan can still be running: directories which are not complete
+ * yet are marked, and the shown directory is refreshed until it is complete or the scan has finished.
+ */
+public class TreeBrowser extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int REFRESH_INTERVAL = 250;
+
+    private final ResourceBundle strings;
+    private final TreeStore tree;
+    private final JButton upButton;
+    private final JLabel pathLabel = new JLabel();
+    private final JTable table = new JTable();
+    private final Timer timer = new Timer(REFRESH_INTERVAL, actionEvent -> refresh());
+    private StatisticsTableModel model;
+    private int node;
+    private boolean current;
+    private boolean finished;
+
+    /**
+     * @param strings Localized texts
+     * @param tree    Tree to browse, may still be filled by a scan
+     */
+    public TreeBrowser(ResourceBundle strings, TreeStore tree) {
+        super(new BorderLayout(5, 5));
+        this.strings = strings;
+        this.tree = tree;
+
+        upButton = new JButton(strings.getString("up"));
+        upButton.addActionListener(actionEvent -> up());
+        JPanel header = new JPanel(new BorderLayout(10, 0));
+        header.add(upButton, BorderLayout.WEST);
+        header.add(pathLabel, BorderLayout.CENTER);
+        add(header, BorderLayout.NORTH);
+
+        table.setAutoCreateRowSorter(true);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    open(table.rowAtPoint(e.getPoint()));
+                }
+            }
+        });
+        table.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "open");
+        table.getActionMap().put("open", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                open(table.getSelectedRow());
+            }
+        });
+        table.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_BACK_SPACE, 0), "up");
+        table.getActionMap().put("up", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                up();
+            }
+        });
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        show(0, -1);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (!finished) {
+            timer.start();
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+    /**
+     * Stops refreshing once the scan has ended. A directory whose listing failed never completes, so the
+     * shown directory is rebuilt a last time and then kept as it is.
+     */
+    public void scanFinished() {
+        finished = true;
+        timer.stop();
+        refresh();
+        current = true;
+    }
+
+    private void open(int row) {
+        if (row < 0) {
+            return;
+        }
+        int child = model.getNode(table.convertRowIndexToModel(row));
+        if (tree.isDirectory(child)) {
+            show(child, -1);
+        }
+    }
+
+    private void up() {
+        if (node != 0) {
+            show(tree.getParent(node), node);
+        }
+    }
+
+    /**
+     * Shows the children of a directory
+     *
+     * @param directory Node of the directory
+     * @param selected  Node to select, -1 for none
+     */
+    private void show(int directory, int selected) {
+        node = directory;
+        current = false;
+        upButton.setEnabled(directory != 0);
+        String path = tree.getRoot().relativize(tree.getPath(directory)).toString();
+        pathLabel.setText(path.isEmpty() ? PathResolver.toString(tree.getRoot()) : path);
+        update(selected);
+    }
+
+    /**
+     * Rebuilds the shown directory while it is not complete, keeping order and selection
+     */
+    private void refresh() {
+        if (current) {
+            return;
+        }
+        int row = table.getSelectedRow();
+        update(row < 0 ? -1 : model.getNode(table.convertRowIndexToModel(row)));
+    }
+
+    private void update(int selected) {
+        // read before building, so a directory completing meanwhile is rebuilt once more
+        boolean complete = tree.isComplete(node);
+        List<? extends SortKey> sortKeys = table.getRowSorter() != null
+                ? table.getRowSorter().getSortKeys() : null;
+        model = StatisticsTableModel.ofTree(strings, tree, node);
+        table.setModel(model);
+        MainWindow.configureTable(table);
+        if (sortKeys != null) {
+            table.getRowSorter().setSortKeys(sortKeys);
+        }
+        for (int i = 0; i < model.getRowCount(); i++) {
+            if (model.getNode(i) == selected) {
+                int row = table.convertRowIndexToView(i);
+                table.setRowSelectionInterval(row, row);
+                table.scrollRectToVisible(table.getCellRect(row, 0, true));
+                break;
+            }
+        }
+        current = complete;
+    }
+}
@@ -0,0 +1,440 @@
+package source;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Compact representation of a scanned tree. Nodes are numbered, the root is node 0, and the children of a
+ * node have consecutive numbers. Every node costs 28 bytes in primitive arrays; names are stored once in a
+ * shared UTF-8 arena and referenced by number, so repeated names like "src" or "index.html" cost nothing
+ * extra.
+ * <p>
+ * The scanner adds nodes while other threads may already read the tree, so all methods are synchronized;
+ * children are only copied under the lock and sorted outside of it.
+ * A node is complete once the sizes of its whole subtree are known.
+ */
+public class TreeStore {
+
+    private static final int MAGIC = 0x464d5453; // "FMTS"
+    private static final int VERSION = 1;
+
+    private final Path root;
+    private int count;
+    private long[] sizes;
+    private int[] fileCounts;
+    private int[] parents;
+    private int[] firstChildren;
+    private int[] childCounts;
+    private int[] names;
+    private final BitSet directories = new BitSet();
+    private final BitSet complete = new BitSet();
+    private final NameArena arena;
+
+    /**
+     * Creates a tree containing only its root
+     *
+     * @param root Directory the tree was scanned from
+     */
+    public TreeStore(Path root) {
+        this(root, 1024, new NameArena(1 << 16));
+        add(-1, PathResolver.nameOf(root), 0, true);
+    }
+
+    private TreeStore(Path root, int capacity, NameArena arena) {
+        this.root = root;
+        this.sizes = new long[capacity];
+        this.fileCounts = new int[capacity];
+        this.parents = new int[capacity];
+        this.firstChildren = new int[capacity];
+        this.childCounts = new int[capacity];
+        this.names = new int[capacity];
+        this.arena = arena;
+    }
+
+    /**
+     * Adds the entries of a directory as its children. Files are complete right away.
+     *
+     * @param parent      Node of the directory
+     * @param childNames  Names of the entries
+     * @param childSizes  Sizes of the files, ignored for directories
+     * @param isDirectory Flags of the entries which are directories
+     * @param length      Number of entries
+     * @return Node of the first entry, the others follow in the given order
+     */
+    synchronized int addChildren(int parent, String[] childNames, long[] childSizes, boolean[] isDirectory,
+                                 int length) {
+        int first = count;
+        for (int i = 0; i < length; i++) {
+            add(parent, childNames[i], isDirectory[i] ? 0 : childSizes[i], isDirectory[i]);
+        }
+        firstChildren[parent] = first;
+        childCounts[parent] = length;
+        return first;
+    }
+
+    /**
+     * Stores the aggregated size of a directory once its subtree has been measured
+     *
+     * @param node      Node of the directory
+     * @param size      Total size of the files inside
+     * @param fileCount Number of files inside
+     */
+    synchronized void complete(int node, long size, long fileCount) {
+        sizes[node] = size;
+        fileCounts[node] = (int) Math.min(Integer.MAX_VALUE, fileCount);
+        complete.set(node);
+    }
+
+    private void add(int parent, String name, long size, boolean directory) {
+        if (count == sizes.length) {
+            // a tree read from a file has no spare capacity, and a single node would not grow by half
+            int capacity = Math.max(count + 1, count + (count >> 1));
+            sizes = Arrays.copyOf(sizes, capacity);
+            fileCounts = Arrays.copyOf(fileCounts, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        int node = count++;
+        sizes[node] = size;
+        fileCounts[node] = directory ? 0 : 1;
+        parents[node] = parent;
+        firstChildren[node] = -1;
+        childCounts[node] = 0;
+        names[node] = arena.intern(name);
+        if (directory) {
+            directories.set(node);
+        } else {
+            complete.set(node);
+        }
+    }
+
+    /**
+     * @return Directory the tree was scanned from
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return Number of nodes
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @param node Node of a file or directory
+     * @return Size of the file, or total size of the files in the directory once it is complete
+     */
+    public synchronized long getSize(int node) {
+        return sizes[node];
+    }
+
+    /**
+     * @param node Node of a file or directory
+     * @return 1 for a file, number of files inside a complete directory
+     */
+    public synchronized long getFileCount(int node) {
+        return fileCounts[node];
+    }
+
+    public synchronized boolean isDirectory(int node) {
+        return directories.get(node);
+    }
+
+    /**
+     * @param node Node of a file or directory
+     * @return true if the size of the node is final
+     */
+    public synchronized boolean isComplete(int node) {
+        return complete.get(node);
+    }
+
+    public synchronized String getName(int node) {
+        return arena.get(names[node]);
+    }
+
+    /**
+     * @param node Node of a file or directory
+     * @return Node of the parent directory, -1 for the root
+     */
+    public synchronized int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @param node Node of a directory
+     * @return Children of the directory, largest first; empty while the directory has not been listed
+     */
+    public int[] getChildren(int node) {
+        int first;
+        long[] childSizes;
+        synchronized (this) {
+            first = firstChildren[node];
+            if (childCounts[node] == 0) {
+                return new int[0];
+            }
+            childSizes = Arrays.copyOfRange(sizes, first, first + childCounts[node]);
+        }
+        // sorted outside of the lock, so the scanner is not held up by huge directories
+        int[] order = new int[childSizes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        sortBySize(order, childSizes);
+        for (int i = 0; i < order.length; i++) {
+            order[i] += first;
+        }
+        return order;
+    }
+
+    /**
+     * Stable merge sort of indexes by their size, largest first, without boxing. Runs of 32 indexes are
+     * sorted by insertion first.
+     *
+     * @param order Indexes into the sizes
+     * @param keys  Sizes
+     */
+    private static void sortBySize(int[] order, long[] keys) {
+        int length = order.length;
+        for (int start = 0; start < length; start += 32) {
+            int end = Math.min(start + 32, length);
+            for (int i = start + 1; i < end; i++) {
+                int index = order[i];
+                int j = i - 1;
+                while (j >= start && keys[order[j]] < keys[index]) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = index;
+            }
+        }
+        int[] source = order;
+        int[] target = new int[length];
+        for (int width = 32; width < length; width *= 2) {
+            for (int start = 0; start < length; start += 2 * width) {
+                int middle = Math.min(start + width, length);
+                int end = Math.min(start + 2 * width, length);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    if (left < middle && (right >= end || keys[source[left]] >= keys[source[right]])) {
+                        target[i] = source[left++];
+                    } else {
+                        target[i] = source[right++];
+                    }
+                }
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != order) {
+            System.arraycopy(source, 0, order, 0, length);
+        }
+    }
+
+    /**
+     * @param node Node of a file or directory
+     * @return Path of the node
+     */
+    public synchronized Path getPath(int node) {
+        if (node == 0) {
+            return root;
+        }
+        return getPath(parents[node]).resolve(arena.get(names[node]));
+    }
+
+    /**
+     * Writes the tree, e.g. to cache it between sessions
+     *
+     * @param out Output to write to
+     * @throws IOException if the output fails
+     */
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(PathResolver.toString(root));
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(sizes[i]);
+            out.writeInt(fileCounts[i]);
+            out.writeInt(parents[i]);
+            out.writeInt(firstChildren[i]);
+            out.writeInt(childCounts[i]);
+            out.writeInt(names[i]);
+            out.writeByte((directories.get(i) ? 1 : 0) | (complete.get(i) ? 2 : 0));
+        }
+        arena.write(out);
+    }
+
+    /**
+     * Reads a tree written by {@link #write(DataOutput)}
+     *
+     * @param in Input to read from
+     * @return Read tree
+     * @throws IOException if the input fails or does not contain a tree
+     */
+    public static TreeStore read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a tree file");
+        }
+        Path root = PathResolver.resolve(in.readUTF());
+        int count = in.readInt();
+        long[] sizes = new long[count];
+        int[] fileCounts = new int[count];
+        int[] parents = new int[count];
+        int[] firstChildren = new int[count];
+        int[] childCounts = new int[count];
+        int[] names = new int[count];
+        BitSet directories = new BitSet(count);
+        BitSet complete = new BitSet(count);
+        for (int i = 0; i < count; i++) {
+            sizes[i] = in.readLong();
+            fileCounts[i] = in.readInt();
+            parents[i] = in.readInt();
+            firstChildren[i] = in.readInt();
+            childCounts[i] = in.readInt();
+            names[i] = in.readInt();
+            int flags = in.readByte();
+            directories.set(i, (flags & 1) != 0);
+            complete.set(i, (flags & 2) != 0);
+        }
+        TreeStore tree = new TreeStore(root, Math.max(1, count), NameArena.read(in));
+        tree.count = count;
+        tree.sizes = sizes;
+        tree.fileCounts = fileCounts;
+        tree.parents = parents;
+        tree.firstChildren = firstChildren;
+        tree.childCounts = childCounts;
+        tree.names = names;
+        tree.directories.or(directories);
+        tree.complete.or(complete);
+        return tree;
+    }
+
+    /**
+     * Distinct names in one UTF-8 byte array. An open addressing table of name numbers finds names which
+     * were stored before without keeping String objects.
+     */
+    private static class NameArena {
+        private byte[] bytes;
+        private int used;
+        private int[] offsets;
+        private int count;
+        private int[] table;
+
+        NameArena(int capacity) {
+            bytes = new byte[capacity];
+            offsets = new int[1024];
+            table = new int[2048];
+        }
+
+        int intern(String name) {
+            byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+            int hash = Arrays.hashCode(encoded);
+            int mask = table.length - 1;
+            int slot = mix(hash) & mask;
+            while (table[slot] != 0) {
+                int id = table[slot] - 1;
+                if (equals(id, encoded)) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (used + encoded.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(used + encoded.length, bytes.length + (bytes.length >> 1)));
+            }
+            if (count + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            System.arraycopy(encoded, 0, bytes, used, encoded.length);
+            int id = count++;
+            offsets[id] = used;
+            used += encoded.length;
+            offsets[count] = used;
+            table[slot] = id + 1;
+            if (count * 2 > table.length) {
+                rehash(table.length * 2);
+            }
+            return id;
+        }
+
+        String get(int id) {
+            return new String(bytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+        }
+
+        private boolean equals(int id, byte[] encoded) {
+            int start = offsets[id];
+            if (offsets[id + 1] - start != encoded.length) {
+                return false;
+            }
+            for (int i = 0; i < encoded.length; i++) {
+                if (bytes[start + i] != encoded[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int hash(int id) {
+            int hash = 1;
+            for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            return hash;
+        }
+
+        private void rehash(int capacity) {
+            table = new int[capacity];
+            int mask = capacity - 1;
+            for (int id = 0; id < count; id++) {
+                int slot = mix(hash(id)) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = id + 1;
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeInt(count);
+            out.writeInt(used);
+            for (int i = 0; i <= count; i++) {
+                out.writeInt(offsets[i]);
+            }
+            out.write(bytes, 0, used);
+        }
+
+        static NameArena read(DataInput in) throws IOException {
+            int count = in.readInt();
+            int used = in.readInt();
+            NameArena arena = new NameArena(Math.max(1, used));
+            arena.offsets = new int[Math.max(1024, count + 2)];
+            for (int i = 0; i <= count; i++) {
+                arena.offsets[i] = in.readInt();
+            }
+            in.readFully(arena.bytes, 0, used);
+            arena.used = used;
+            arena.count = count;
+            int capacity = 2048;
+            while (capacity < count * 2 + 2) {
+                capacity *= 2;
+            }
+            arena.rehash(capacity);
+            return arena;
+        }
+    }
+}
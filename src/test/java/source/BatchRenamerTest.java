@@ -0,0 +1,251 @@
+package source;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class BatchRenamerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path journals;
+    private Path directory;
+    private BatchRenamer renamer;
+
+    @Before
+    public void setUp() throws IOException {
+        journals = temp.newFolder("journals").toPath();
+        directory = temp.newFolder("files").toPath();
+        renamer = new BatchRenamer(journals, 1);
+    }
+
+    @Test
+    public void renamesChain() throws Exception {
+        write(directory, "a", "A");
+        write(directory, "b", "B");
+        BatchRenamer.Result result = execute(directory, renames("a", "b", "b", "c"), null);
+
+        assertEquals(2, result.getRenamed());
+        assertTrue(result.getErrors().isEmpty());
+        assertFalse(Files.exists(directory.resolve("a")));
+        assertEquals("A", read(directory, "b"));
+        assertEquals("B", read(directory, "c"));
+        assertEquals(2, count(directory));
+        assertTrue(renamer.pendingJournals().isEmpty());
+    }
+
+    @Test
+    public void swapsCycle() throws Exception {
+        write(directory, "a", "A");
+        write(directory, "b", "B");
+        BatchRenamer.Result result = execute(directory, renames("a", "b", "b", "a"), null);
+
+        assertEquals(2, result.getRenamed());
+        assertEquals("B", read(directory, "a"));
+        assertEquals("A", read(directory, "b"));
+        assertEquals(2, count(directory));
+    }
+
+    @Test
+    public void rejectsCollisions() throws Exception {
+        write(directory, "a", "A");
+        write(directory, "b", "B");
+        write(directory, "c", "C");
+        try {
+            renamer.plan(directory, renames("a", "x", "b", "x"));
+            fail("two entries renamed to the same name");
+        } catch (BatchRenamer.RenameException e) {
+            assertEquals(1, e.getProblems().size());
+        }
+        try {
+            renamer.plan(directory, renames("a", "c"));
+            fail("target exists and is not renamed");
+        } catch (BatchRenamer.RenameException e) {
+            assertEquals(1, e.getProblems().size());
+        }
+        assertEquals("A", read(directory, "a"));
+        assertEquals("C", read(directory, "c"));
+    }
+
+    @Test
+    public void rollsBackFailedBatch() throws Exception {
+        write(directory, "a", "A");
+        write(directory, "b", "B");
+        BatchRenamer.Plan plan = renamer.plan(directory, renames("a", "x", "b", "y"));
+        // the second move fails after the first one succeeded
+        Files.delete(directory.resolve("b"));
+        BatchRenamer.Result result = renamer.execute(plan, null);
+
+        assertTrue(result.isRolledBack());
+        assertFalse(result.isIncomplete());
+        assertEquals(1, result.getErrors().size());
+        assertEquals("A", read(directory, "a"));
+        assertFalse(Files.exists(directory.resolve("x")));
+        assertTrue(renamer.pendingJournals().isEmpty());
+    }
+
+    @Test
+    public void ignoresCancelAfterLastMove() throws Exception {
+        write(directory, "a", "A");
+        write(directory, "b", "B");
+        boolean[] cancelled = {false};
+        BatchRenamer.Result result = execute(directory, renames("a", "x", "b", "y"), new BatchRenamer.Progress() {
+            @Override
+            public void moved(BatchRenamer.Step step, int done, int total) {
+                cancelled[0] = done == total;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled[0];
+            }
+        });
+
+        assertFalse(result.isRolledBack());
+        assertEquals(2, result.getRenamed());
+        assertEquals("A", read(directory, "x"));
+        assertEquals("B", read(directory, "y"));
+    }
+
+    @Test
+    public void resumesInterruptedBatch() throws Exception {
+        Path journal = interruptChain(directory);
+        BatchRenamer.Result result = renamer.resume(journal);
+
+        assertTrue(result.getErrors().isEmpty());
+        assertFalse(result.isRolledBack());
+        assertEquals("A", read(directory, "b"));
+        assertEquals("B", read(directory, "c"));
+        assertEquals(2, count(directory));
+        assertTrue(renamer.pendingJournals().isEmpty());
+    }
+
+    @Test
+    public void rollsBackInterruptedBatch() throws Exception {
+        Path journal = interruptChain(directory);
+        BatchRenamer.Result result = renamer.rollback(journal);
+
+        assertTrue(result.getErrors().isEmpty());
+        assertTrue(result.isRolledBack());
+        assertEquals("A", read(directory, "a"));
+        assertEquals("B", read(directory, "b"));
+        assertEquals(2, count(directory));
+        assertTrue(renamer.pendingJournals().isEmpty());
+    }
+
+    @Test
+    public void keepsJournalsOfDirectoriesApart() throws Exception {
+        // both paths have the same String hash code
+        Path first = temp.newFolder("Aa").toPath();
+        Path second = temp.newFolder("BB").toPath();
+        assertEquals(first.toAbsolutePath().toString().hashCode(), second.toAbsolutePath().toString().hashCode());
+
+        interruptChain(first);
+        write(second, "a", "A");
+        BatchRenamer.Result result = execute(second, renames("a", "x"), null);
+
+        assertEquals(1, result.getRenamed());
+        assertEquals("A", read(second, "x"));
+        assertEquals(1, renamer.pendingJournals().size());
+        assertEquals(first, BatchRenamer.directoryOf(renamer.pendingJournals().get(0)));
+    }
+
+    @Test
+    public void rejectsDirectoriesInArchives() throws Exception {
+        Path zip = temp.getRoot().toPath().resolve("archive.zip");
+        URI uri = URI.create("jar:" + zip.toUri());
+        try (FileSystem archive = FileSystems.newFileSystem(uri, Collections.singletonMap("create", "true"))) {
+            Path root = archive.getPath("/");
+            Files.createDirectory(root.resolve("d"));
+            write(root.resolve("d"), "a", "A");
+            write(root, "b", "B");
+            try {
+                renamer.plan(root, renames("d/", "e/", "b", "c"));
+                fail("directory inside an archive renamed");
+            } catch (BatchRenamer.RenameException e) {
+                assertEquals(1, e.getProblems().size());
+            }
+            assertEquals("A", read(root.resolve("d"), "a"));
+
+            BatchRenamer.Result result = execute(root, renames("b", "c"), null);
+            assertEquals(1, result.getRenamed());
+            assertEquals("B", read(root, "c"));
+        }
+    }
+
+    /**
+     * Starts the chain a to b and b to c and stops it after two of its three moves, like a crash
+     *
+     * @return Journal of the interrupted batch
+     */
+    private Path interruptChain(Path directory) throws Exception {
+        write(directory, "a", "A");
+        write(directory, "b", "B");
+        try {
+            execute(directory, renames("a", "b", "b", "c"), new BatchRenamer.Progress() {
+                @Override
+                public void moved(BatchRenamer.Step step, int done, int total) {
+                    if (done == 2) {
+                        throw new IllegalStateException("crash");
+                    }
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return false;
+                }
+            });
+            fail("batch was not interrupted");
+        } catch (IOException e) {
+            // interrupted
+        }
+        List<Path> pending = renamer.pendingJournals();
+        assertEquals(1, pending.size());
+        assertFalse(Files.exists(directory.resolve("a")));
+        return pending.get(0);
+    }
+
+    private BatchRenamer.Result execute(Path directory, Map<String, String> renames, BatchRenamer.Progress progress)
+            throws Exception {
+        return renamer.execute(renamer.plan(directory, renames), progress);
+    }
+
+    private static Map<String, String> renames(String... names) {
+        Map<String, String> renames = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i += 2) {
+            renames.put(names[i], names[i + 1]);
+        }
+        return renames;
+    }
+
+    private static void write(Path directory, String name, String content) throws IOException {
+        Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path directory, String name) throws IOException {
+        return new String(Files.readAllBytes(directory.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    private static long count(Path directory) throws IOException {
+        try (Stream<Path> entries = Files.list(directory)) {
+            return entries.count();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class DirectorySizeScannerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path root;
+    private Path outside;
+    private DirectorySizeScanner scanner;
+
+    @Before
+    public void setUp() throws IOException {
+        root = temp.newFolder("root").toPath();
+        outside = temp.newFolder("outside").toPath();
+        scanner = new DirectorySizeScanner(2, null);
+    }
+
+    @After
+    public void tearDown() {
+        scanner.shutdown();
+    }
+
+    @Test
+    public void followsLinkToDirectoryOutsideRoot() throws Exception {
+        Files.createDirectory(root.resolve("inside"));
+        write(root.resolve("inside"), "a", 100);
+        Files.createDirectory(outside.resolve("target"));
+        write(outside.resolve("target"), "b", 300);
+        write(outside.resolve("target"), "c", 50);
+        assumeTrue(link(root.resolve("link"), outside.resolve("target")));
+
+        Map<String, Directory> entries = byName(scanner.getDirectorySizes(root, null, true));
+
+        assertEquals(100, entries.get("inside").getSize());
+        assertEquals(350, entries.get("link").getSize());
+        assertEquals(2, entries.get("link").getFileCount());
+        assertTrue(entries.get("link").getAllocatedSize() > 0);
+        // a plain scan skips the link
+        assertFalse(byName(scanner.getDirectorySizes(root, null, false)).containsKey("link"));
+    }
+
+    @Test
+    public void countsSharedDirectoryOnce() throws Exception {
+        Files.createDirectory(outside.resolve("target"));
+        write(outside.resolve("target"), "b", 300);
+        assumeTrue(link(root.resolve("first"), outside.resolve("target")));
+        assumeTrue(link(root.resolve("second"), outside.resolve("target")));
+        // a cycle back to the root is not followed
+        assumeTrue(link(outside.resolve("target").resolve("up"), root));
+
+        List<Directory> entries = scanner.getDirectorySizes(root, null, true);
+
+        long size = 0;
+        for (Directory entry : entries) {
+            size += entry.getSize();
+        }
+        assertEquals(300, size);
+    }
+
+    @Test
+    public void countsHardLinksOnce() throws Exception {
+        Path file = write(root, "a", 5000);
+        try {
+            Files.createLink(root.resolve("b"), file);
+        } catch (UnsupportedOperationException | IOException e) {
+            assumeTrue(false);
+        }
+
+        List<Directory> entries = scanner.getDirectorySizes(root, null, true);
+
+        assertEquals(1, entries.size());
+        assertEquals(5000, entries.get(0).getSize());
+        assertTrue(entries.get(0).getAllocatedSize() >= 0);
+    }
+
+    @Test
+    public void leavesRootOutOfAnalysis() throws Exception {
+        Path sub = Files.createDirectories(root.resolve("sub").resolve("deep"));
+        write(sub, "a", 100);
+        write(root, "b", 10);
+        TreeAnalysis analysis = new TreeAnalysis(10);
+        TreeStore tree = new TreeStore(root);
+
+        scanner.scanTree(root, null, analysis, tree);
+
+        assertTrue(tree.isComplete(0));
+        assertEquals(110, tree.getSize(0));
+        List<TreeAnalysis.Entry> directories = analysis.getLargestDirectories();
+        Set<Path> paths = new HashSet<>();
+        for (TreeAnalysis.Entry entry : directories) {
+            paths.add(entry.getPath());
+        }
+        assertEquals(new HashSet<>(Arrays.asList(root.resolve("sub"), sub)), paths);
+        assertEquals(2, analysis.getLargestFiles().size());
+    }
+
+    private static boolean link(Path link, Path target) {
+        try {
+            Files.createSymbolicLink(link, target);
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            return false;
+        }
+    }
+
+    private static Path write(Path directory, String name, int size) throws IOException {
+        return Files.write(directory.resolve(name), new byte[size]);
+    }
+
+    private static Map<String, Directory> byName(List<Directory> entries) {
+        Map<String, Directory> map = new HashMap<>();
+        for (Directory entry : entries) {
+            map.put(entry.getName(), entry);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,174 @@
+package source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class DuplicateFinderTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path directory;
+    private DuplicateFinder finder;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temp.newFolder("files").toPath();
+        finder = new DuplicateFinder(2);
+    }
+
+    @After
+    public void tearDown() {
+        finder.shutdown();
+    }
+
+    @Test
+    public void comparesFirstAndLastBlock() throws Exception {
+        byte[] content = content(1000, 1);
+        write("a", content);
+        write("b", changed(content, 0));
+        write("c", changed(content, 999));
+        write("d", content);
+        // larger than two blocks, only the last block differs
+        byte[] large = content(40 * 1024, 2);
+        write("e", large);
+        write("f", changed(large, large.length - 1));
+
+        List<DuplicateFinder.Group> groups = finder.find(directory, 1, null);
+
+        assertEquals(groups(names("a", "d")), names(groups));
+        assertEquals(1000, groups.get(0).getSize());
+        assertEquals(1000, groups.get(0).getReclaimable());
+    }
+
+    @Test
+    public void comparesMiddleOfLargeFiles() throws Exception {
+        // first and last 16 KiB are equal, so only the full hash tells the files apart
+        byte[] content = content(100 * 1024, 3);
+        write("x", content);
+        write("y", changed(content, 50 * 1024));
+        write("z", content);
+
+        List<DuplicateFinder.Group> groups = finder.find(directory, 1, null);
+
+        assertEquals(groups(names("x", "z")), names(groups));
+    }
+
+    @Test
+    public void skipsFilesBelowMinimumSize() throws Exception {
+        write("small1", content(10, 4));
+        write("small2", content(10, 4));
+        write("large1", content(100, 5));
+        write("large2", content(100, 5));
+        write("empty1", new byte[0]);
+        write("empty2", new byte[0]);
+
+        assertEquals(groups(names("large1", "large2")), names(finder.find(directory, 50, null)));
+        // empty files are never reported, even with a minimum of 0
+        assertEquals(groups(names("large1", "large2"), names("small1", "small2")),
+                names(finder.find(directory, 0, null)));
+    }
+
+    @Test
+    public void findsSameGroupsInSeveralRanges() throws Exception {
+        int[] sizes = {1, 2, 3, 5, 8, 63, 64, 65, 100, 1000, 5000, 40 * 1024, 70 * 1024};
+        int seed = 10;
+        for (int size : sizes) {
+            Path subdirectory = Files.createDirectories(directory.resolve("d" + size));
+            byte[] content = content(size, seed++);
+            Files.write(subdirectory.resolve("one"), content);
+            Files.write(subdirectory.resolve("two"), content);
+            // same size, other content
+            Files.write(subdirectory.resolve("other"), changed(content, size - 1));
+        }
+
+        Set<List<String>> expected = names(finder.find(directory, 1, null));
+        assertEquals(sizes.length, expected.size());
+        // small batches split the candidates into many size ranges, each walking the tree again
+        for (long batchSize : new long[]{1, 2, 5, 7}) {
+            DuplicateFinder batched = new DuplicateFinder(2, batchSize);
+            try {
+                assertEquals("batch size " + batchSize, expected, names(batched.find(directory, 1, null)));
+            } finally {
+                batched.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void ignoresHardLinks() throws Exception {
+        byte[] content = content(2000, 6);
+        Path file = write("a", content);
+        try {
+            Files.createLink(directory.resolve("link"), file);
+        } catch (UnsupportedOperationException | IOException e) {
+            assumeTrue(false);
+        }
+        assertTrue(finder.find(directory, 1, null).isEmpty());
+
+        write("copy", content);
+        List<DuplicateFinder.Group> groups = finder.find(directory, 1, null);
+
+        assertEquals(1, groups.size());
+        assertEquals(2, groups.get(0).getFileCount());
+        assertEquals(2000, groups.get(0).getReclaimable());
+        assertTrue(groups.get(0).getFiles().contains(directory.resolve("copy")));
+    }
+
+    private Path write(String name, byte[] content) throws IOException {
+        return Files.write(directory.resolve(name), content);
+    }
+
+    private static byte[] content(int size, int seed) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + seed * 17 + (i >> 8));
+        }
+        return content;
+    }
+
+    private static byte[] changed(byte[] content, int index) {
+        byte[] copy = content.clone();
+        copy[index]++;
+        return copy;
+    }
+
+    private static List<String> names(String... names) {
+        return Arrays.asList(names);
+    }
+
+    @SafeVarargs
+    private static Set<List<String>> groups(List<String>... groups) {
+        return new HashSet<>(Arrays.asList(groups));
+    }
+
+    /**
+     * @return Names of the files of each group relative to the searched directory
+     */
+    private Set<List<String>> names(List<DuplicateFinder.Group> groups) {
+        Set<List<String>> names = new HashSet<>();
+        for (DuplicateFinder.Group group : groups) {
+            List<String> files = new ArrayList<>();
+            for (Path file : group.getFiles()) {
+                files.add(directory.relativize(file).toString());
+            }
+            names.add(files);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,173 @@
+package source;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.*;
+import static source.RenamePipeline.CaseMode;
+import static source.RenamePipeline.Scope;
+
+public class RenamePipelineTest {
+
+    @Test
+    public void replacesEveryLiteralOccurrence() {
+        assertEquals("a_b_c.txt", rename("-", "_", false, "a-b-c.txt"));
+        // tokens of regular expressions are plain text in literal mode
+        assertEquals("$1b", rename("a", "$1", false, "ab"));
+        assertEquals("x.txt", rename("missing", "y", false, "x.txt"));
+    }
+
+    @Test
+    public void prefixesWithEmptySearch() {
+        assertEquals("new_a.txt", rename("", "new_", false, "a.txt"));
+        assertEquals("new_a.txt", RenamePipeline.literal("", "new_").renamer().renameToString("a.txt", 0, 0));
+    }
+
+    @Test
+    public void insertsGroups() {
+        assertEquals("12_abc.txt", rename("(\\w+)-(\\d+)", "$2_$1", true, "abc-12.txt"));
+        assertEquals("[abc-12].txt", rename("\\w+-\\d+", "[$0]", true, "abc-12.txt"));
+        // groups which did not take part in the match and groups beyond the pattern are empty
+        assertEquals("b.txt", rename("(x)?(b)", "$1$2$7", true, "b.txt"));
+        // every match is replaced
+        assertEquals("<1><2>", rename("(\\d)", "<$1>", true, "12"));
+    }
+
+    @Test
+    public void insertsCounter() {
+        RenamePipeline.Renamer renamer = compile("", "{n}_", false, CaseMode.NONE, Scope.NAME).renamer();
+        assertEquals("1_a", renamer.renameToString("a", 0, 0));
+        assertEquals("12_a", renamer.renameToString("a", 11, 0));
+        assertEquals("007_a", rename("", "{n:3}_", 6, "a"));
+        assertEquals("15_a", rename("", "{n:2:10}_", 5, "a"));
+        assertEquals("100_a", rename("", "{n:2:100}_", 0, "a"));
+        assertEquals("-005_a", rename("", "{n:3:-5}_", 0, "a"));
+        assertTrue(compile("", "{n:3}", false, CaseMode.NONE, Scope.NAME).usesCounter());
+        assertFalse(compile("", "x", false, CaseMode.NONE, Scope.NAME).usesCounter());
+    }
+
+    @Test
+    public void insertsDate() {
+        long time = LocalDateTime.of(2020, 6, 15, 12, 30).atZone(ZoneId.systemDefault()).toInstant()
+                .toEpochMilli();
+        RenamePipeline pipeline = compile(".txt", ".{date:yyyy-MM-dd}.txt", false, CaseMode.NONE, Scope.NAME);
+        assertTrue(pipeline.usesAttributes());
+        assertEquals("a.2020-06-15.txt", pipeline.renamer().renameToString("a.txt", 0, time));
+        assertFalse(compile("", "{n}", false, CaseMode.NONE, Scope.NAME).usesAttributes());
+    }
+
+    @Test
+    public void keepsUnknownTokensAsText() {
+        assertEquals("{x}a", rename("", "{x}", 0, "a"));
+        assertEquals("{n:w}a", rename("", "{n:w}", 0, "a"));
+        assertEquals("{na", rename("", "{n", 0, "a"));
+        // groups are only tokens of regular expressions
+        assertEquals("$1a", rename("", "$1", 0, "a"));
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void rejectsInvalidRegex() {
+        compile("(", "x", true, CaseMode.NONE, Scope.NAME);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidDatePattern() {
+        compile("", "{date:yyyy-b}", false, CaseMode.NONE, Scope.NAME);
+    }
+
+    @Test
+    public void changesCaseOfScope() {
+        // the whole part selected by the scope is edited, not only the replaced text
+        assertEquals("HELLO WORLD.TXT", rename("hello", "hello", CaseMode.UPPER, Scope.NAME, "hello world.txt"));
+        assertEquals("HELLO WORLD.txt", rename("", "", CaseMode.UPPER, Scope.BASE_NAME, "hello world.txt"));
+        assertEquals("a.txt", rename("", "", CaseMode.LOWER, Scope.EXTENSION, "a.TXT"));
+        assertEquals("Hello World-2x.TXT", rename("", "", CaseMode.TITLE, Scope.BASE_NAME, "hELLO wORLD-2X.TXT"));
+        assertEquals("DIR/", rename("", "", CaseMode.UPPER, Scope.NAME, "dir/"));
+    }
+
+    @Test
+    public void editsScopes() {
+        assertEquals("b.b", rename("a", "b", CaseMode.NONE, Scope.NAME, "a.a"));
+        assertEquals("b.a", rename("a", "b", CaseMode.NONE, Scope.BASE_NAME, "a.a"));
+        assertEquals("a.b", rename("a", "b", CaseMode.NONE, Scope.EXTENSION, "a.a"));
+        // only the last dot separates the extension
+        assertEquals("b.b.a", rename("a", "b", CaseMode.NONE, Scope.BASE_NAME, "a.a.a"));
+        // directories have no extension, their '/' is never edited
+        assertEquals("a.a/", rename("a", "b", CaseMode.NONE, Scope.EXTENSION, "a.a/"));
+        assertEquals("b.b/", rename("a", "b", CaseMode.NONE, Scope.BASE_NAME, "a.a/"));
+        assertEquals("a/", rename("/", "b", CaseMode.NONE, Scope.NAME, "a/"));
+        // a leading dot does not start an extension
+        RenamePipeline.Renamer renamer = compile("", "x", false, CaseMode.NONE, Scope.EXTENSION).renamer();
+        assertFalse(renamer.matches(".bashrc"));
+        assertTrue(renamer.matches("a.bashrc"));
+        assertEquals("a.xbashrc", renamer.renameToString("a.bashrc", 0, 0));
+    }
+
+    @Test
+    public void keepsNameWhichWouldBeEmpty() {
+        assertEquals("abc", rename("abc", "", false, "abc"));
+        assertEquals("abc/", rename("abc", "", false, "abc/"));
+    }
+
+    @Test
+    public void narrowsExtendedLiteralSearch() {
+        RenamePipeline a = compile("a", "", false, CaseMode.NONE, Scope.NAME);
+        RenamePipeline ab = compile("ab", "x", false, CaseMode.UPPER, Scope.NAME);
+        assertTrue(ab.narrows(a));
+        assertFalse(a.narrows(ab));
+        assertFalse(ab.narrows(null));
+        assertFalse(ab.narrows(compile("", "", false, CaseMode.NONE, Scope.NAME)));
+        assertFalse(ab.narrows(compile("a", "", false, CaseMode.NONE, Scope.BASE_NAME)));
+        assertFalse(ab.narrows(compile("a", "", true, CaseMode.NONE, Scope.NAME)));
+        assertFalse(compile("ab", "", true, CaseMode.NONE, Scope.NAME).narrows(a));
+    }
+
+    @Test
+    public void narrowedMatchEqualsFullMatch() {
+        FileListModel model = new FileListModel();
+        model.add(Arrays.asList("abc.txt", "ab.txt", "b.txt", "cab/", "xa.ab", "a", "bab.b"));
+        FileListModel.Snapshot snapshot = model.snapshot();
+        for (Scope scope : Scope.values()) {
+            RenamePipeline previous = compile("a", "", false, CaseMode.NONE, scope);
+            BitSet previousMatched = new BitSet();
+            RenamePreviewEngine.match(snapshot, previous, null, previousMatched, new BitSet(), () -> false);
+            for (String search : new String[]{"ab", "abc", "b"}) {
+                RenamePipeline pipeline = compile(search, "_{n}", false, CaseMode.NONE, scope);
+                if (!pipeline.narrows(previous)) {
+                    continue;
+                }
+                BitSet fullMatched = new BitSet();
+                BitSet fullRenamed = new BitSet();
+                RenamePreviewEngine.match(snapshot, pipeline, null, fullMatched, fullRenamed, () -> false);
+                BitSet matched = new BitSet();
+                BitSet renamed = new BitSet();
+                RenamePreviewEngine.match(snapshot, pipeline, previousMatched, matched, renamed, () -> false);
+                assertEquals(scope + " " + search, fullMatched, matched);
+                assertEquals(scope + " " + search, fullRenamed, renamed);
+            }
+        }
+    }
+
+    private static RenamePipeline compile(String search, String replacement, boolean regex, CaseMode caseMode,
+                                          Scope scope) {
+        return RenamePipeline.compile(search, replacement, regex, caseMode, scope);
+    }
+
+    private static String rename(String search, String replacement, boolean regex, String name) {
+        return compile(search, replacement, regex, CaseMode.NONE, Scope.NAME).renamer().renameToString(name, 0, 0);
+    }
+
+    private static String rename(String search, String replacement, long sequence, String name) {
+        return compile(search, replacement, false, CaseMode.NONE, Scope.NAME).renamer()
+                .renameToString(name, sequence, 0);
+    }
+
+    private static String rename(String search, String replacement, CaseMode caseMode, Scope scope, String name) {
+        return compile(search, replacement, false, caseMode, scope).renamer().renameToString(name, 0, 0);
+    }
+}
@@ -0,0 +1,106 @@
+package source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class SizeIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path root;
+    private Path indexFile;
+    private DirectorySizeScanner scanner;
+
+    @Before
+    public void setUp() throws IOException {
+        root = temp.newFolder("root").toPath();
+        indexFile = temp.getRoot().toPath().resolve("index").resolve("sizes.idx");
+    }
+
+    @After
+    public void tearDown() {
+        if (scanner != null) {
+            scanner.shutdown();
+        }
+    }
+
+    @Test
+    public void reusesUnchangedSubtreeAndRescansChangedOne() throws Exception {
+        Path unchanged = Files.createDirectories(root.resolve("unchanged").resolve("deep"));
+        Path changed = Files.createDirectory(root.resolve("changed"));
+        Files.write(unchanged.resolve("a"), new byte[100]);
+        Files.write(changed.resolve("b"), new byte[10]);
+        assertEquals(110, scan(new SizeIndex(indexFile)));
+
+        // rewriting files in place keeps the modification times of their directories
+        FileTime unchangedTime = Files.getLastModifiedTime(unchanged);
+        FileTime changedTime = Files.getLastModifiedTime(changed);
+        Files.write(unchanged.resolve("a"), new byte[200]);
+        Files.write(changed.resolve("b"), new byte[20]);
+        Files.setLastModifiedTime(unchanged, unchangedTime);
+        Files.setLastModifiedTime(changed, FileTime.fromMillis(changedTime.toMillis() + 10_000));
+
+        // read back from disk: the unchanged subtree keeps its indexed size, the changed one is listed again
+        assertEquals(120, scan(new SizeIndex(indexFile)));
+
+        Files.setLastModifiedTime(unchanged, FileTime.fromMillis(unchangedTime.toMillis() + 10_000));
+        assertEquals(220, scan(new SizeIndex(indexFile)));
+    }
+
+    @Test
+    public void forgetsInvalidatedDirectories() throws Exception {
+        Path directory = Files.createDirectory(root.resolve("directory"));
+        Files.write(directory.resolve("a"), new byte[100]);
+        SizeIndex index = new SizeIndex(indexFile);
+        assertEquals(100, scan(index));
+        assertNotNull(index.get(directory));
+
+        FileTime time = Files.getLastModifiedTime(directory);
+        Files.write(directory.resolve("a"), new byte[300]);
+        Files.setLastModifiedTime(directory, time);
+        index.invalidate(directory);
+        assertNull(index.get(directory));
+        assertNull(index.get(root));
+        index.save();
+
+        assertEquals(300, scan(new SizeIndex(indexFile)));
+    }
+
+    @Test
+    public void savesOnlyChanges() throws Exception {
+        SizeIndex index = new SizeIndex(indexFile);
+        index.save();
+        assertFalse(Files.exists(indexFile));
+
+        Files.write(root.resolve("a"), new byte[10]);
+        scan(index);
+        assertTrue(Files.exists(indexFile));
+        Files.delete(indexFile);
+        index.save();
+        assertFalse(Files.exists(indexFile));
+    }
+
+    /**
+     * Measures the root with a new scanner and saves the index
+     */
+    private long scan(SizeIndex index) throws IOException {
+        if (scanner != null) {
+            scanner.shutdown();
+        }
+        scanner = new DirectorySizeScanner(2, index);
+        long size = scanner.getFolderSize(root);
+        index.save();
+        return size;
+    }
+}
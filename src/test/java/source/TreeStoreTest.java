@@ -0,0 +1,86 @@
+package source;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class TreeStoreTest {
+
+    private static final Path ROOT = Paths.get("root").toAbsolutePath();
+
+    @Test
+    public void navigatesReadTree() throws Exception {
+        TreeStore tree = new TreeStore(ROOT);
+        int first = tree.addChildren(0, new String[]{"small.txt", "src", "large.bin"}, new long[]{10, 0, 500},
+                new boolean[]{false, true, false}, 3);
+        int src = first + 1;
+        // repeated names share the arena
+        int nested = tree.addChildren(src, new String[]{"small.txt", "main"}, new long[]{1000, 0},
+                new boolean[]{false, true}, 2);
+        tree.complete(nested + 1, 0, 0);
+        tree.complete(src, 1000, 1);
+        tree.complete(0, 1510, 3);
+
+        TreeStore read = copy(tree);
+
+        assertEquals(ROOT, read.getRoot());
+        assertEquals(tree.size(), read.size());
+        assertTrue(read.isComplete(0));
+        assertEquals(1510, read.getSize(0));
+        assertEquals(3, read.getFileCount(0));
+        int[] children = read.getChildren(0);
+        assertEquals(3, children.length);
+        assertEquals("src", read.getName(children[0]));
+        assertTrue(read.isDirectory(children[0]));
+        assertEquals("large.bin", read.getName(children[1]));
+        assertEquals("small.txt", read.getName(children[2]));
+        assertFalse(read.isDirectory(children[2]));
+
+        int[] grandchildren = read.getChildren(children[0]);
+        assertEquals(2, grandchildren.length);
+        assertEquals("small.txt", read.getName(grandchildren[0]));
+        assertEquals(1000, read.getSize(grandchildren[0]));
+        assertEquals(children[0], read.getParent(grandchildren[0]));
+        assertEquals(ROOT.resolve("src").resolve("small.txt"), read.getPath(grandchildren[0]));
+        assertEquals(0, read.getChildren(grandchildren[1]).length);
+        assertEquals(-1, read.getParent(0));
+    }
+
+    @Test
+    public void growsReadTree() throws Exception {
+        // a tree of only its root is read with room for exactly one node
+        TreeStore read = copy(new TreeStore(ROOT));
+        assertEquals(1, read.size());
+        assertFalse(read.isComplete(0));
+
+        int first = read.addChildren(0, new String[]{"a", "b", "c"}, new long[]{1, 2, 3},
+                new boolean[]{false, false, false}, 3);
+        read.complete(0, 6, 3);
+
+        assertEquals(4, read.size());
+        assertEquals("c", read.getName(read.getChildren(0)[0]));
+        assertEquals(ROOT.resolve("a"), read.getPath(first));
+        assertEquals(6, copy(read).getSize(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherData() throws Exception {
+        TreeStore.read(new DataInputStream(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8})));
+    }
+
+    private static TreeStore copy(TreeStore tree) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            tree.write(out);
+        }
+        return TreeStore.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}